@@ -9,65 +9,113 @@ import java.util.HashMap;
  * <a href="http://www.itl.nist.gov/div897/sqg/dads/HTML/ahoCorasick.html">Aho-Corasick automaton</a>.
  * It is built atop a regular dictionary automaton.  The Aho-Corasick will
  * return all strings in its dictionary that contain the given sub-string.
+ * Words can be added and removed as in any dictionary automaton, but every
+ * update recomputes the failure transitions of all states, so it costs time
+ * proportional to the size of the dictionary.
  * @author Infinite Automata
  */
 public final class AhoCorasickAutomaton
         extends DictionaryAutomaton
         implements Serializable {
 
-    private HashMap<DictionaryAutomaton.State, DictionaryAutomaton.State> fail_transitions;
-    private HashMap<DictionaryAutomaton.State, List<String>> mappings;
+    /**
+     * Root and failure transitions of one version of the dictionary.
+     * Updates replace them as a whole, so matchAll never mixes versions.
+     */
+    private static final class Tables
+            implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final DictionaryAutomaton.DictionaryState root;
+        private final HashMap<DictionaryAutomaton.DictionaryState, DictionaryAutomaton.DictionaryState> fail_transitions;
+        private final HashMap<DictionaryAutomaton.DictionaryState, List<String>> mappings;
+
+        private Tables(DictionaryAutomaton.DictionaryState root,
+                HashMap<DictionaryAutomaton.DictionaryState, DictionaryAutomaton.DictionaryState> fail_transitions,
+                HashMap<DictionaryAutomaton.DictionaryState, List<String>> mappings) {
+            this.root = root;
+            this.fail_transitions = fail_transitions;
+            this.mappings = mappings;
+        }
+    }
+    private volatile Tables tables;
 
     public AhoCorasickAutomaton(String... words) {
         this(Arrays.asList(words));
     }
 
+    /**
+     * Construct an Aho-Corasick automaton over the words of another
+     * dictionary.  The failure transitions need a trie, so the words are
+     * copied out of the dictionary, which may be a minimal one.
+     * @param dictionary_automaton dictionary holding the words to match
+     */
+    public AhoCorasickAutomaton(DictionaryAutomaton dictionary_automaton) {
+        this(wordList(dictionary_automaton));
+    }
+
+    private static List<String> wordList(DictionaryAutomaton dictionary_automaton) {
+        List<String> word_list = new ArrayList<String>();
+        for (String word : dictionary_automaton) {
+            word_list.add(word);
+        }
+        return word_list;
+    }
+
     public AhoCorasickAutomaton(List<String> word_list) {
         super(word_list);
-        Automaton.State old_root = root_node;
-        root_node = new Automaton.State() {
+        setRoot(getCurrentState());
+    }
+
+    /**
+     * Replaces the root by one that loops back to itself on characters
+     * without an edge, and computes the failure transitions of all states
+     * before the new root is published.
+     * @param root root of the trie
+     */
+    @Override
+    protected void setRoot(DictionaryState root) {
+        DictionaryState new_root = new DictionaryState(null) {
 
             @Override
-            protected State getNextState(Object c) {
-                State next_state = (State) next_states.get(c);
+            protected DictionaryState getNextState(char c) {
+                DictionaryState next_state = super.getNextState(c);
                 return (next_state != null ? next_state : this);
             }
         };
-        for (Object obj : old_root.next_states.keySet()) {
-            try {
-                root_node.addNextState(obj, old_root.getNextState(obj));
-            } catch (Exception e) {
-            }
-        }
-
-        // complete the Aho-Corasick-specific part of instantiation
-
-        this.fail_transitions = new HashMap<DictionaryAutomaton.State, DictionaryAutomaton.State>();
-        this.mappings = new HashMap<DictionaryAutomaton.State, List<String>>(word_list.size());
+        new_root.assign(root);
+        tables = buildTables(new_root);
+        super.setRoot(new_root);
+    }
 
-        DictionaryAutomaton.State root_state = getCurrentState();
-        Queue<DictionaryAutomaton.State> queue = new LinkedList<DictionaryAutomaton.State>();
-        for (Character c : getAlphabet()) {
-            DictionaryAutomaton.State next_state = root_state.getNextState(c);
-            if ((next_state != null) && (next_state != root_state)) {
-                fail_transitions.put(next_state, root_state);
-                queue.offer(next_state);
-            }
+    /**
+     * Computes the failure transitions below a self-looping root.
+     * @param root_state self-looping root
+     * @return tables of the trie below root_state
+     */
+    private Tables buildTables(DictionaryState root_state) {
+        HashMap<DictionaryState, DictionaryState> fail_transitions = new HashMap<DictionaryState, DictionaryState>();
+        HashMap<DictionaryState, List<String>> mappings = new HashMap<DictionaryState, List<String>>(root_state.getWordCount());
+
+        Queue<DictionaryState> queue = new LinkedList<DictionaryState>();
+        for (DictionaryState next_state : root_state.getEdgeStates()) {
+            fail_transitions.put(next_state, root_state);
+            queue.offer(next_state);
         }
 
         while (!queue.isEmpty()) {
-            DictionaryAutomaton.State r = queue.remove();
-            for (Character a : getAlphabet()) {
-                DictionaryAutomaton.State u = r.getNextState(a);
-                if (u == null) {
-                    continue;
-                }
+            DictionaryState r = queue.remove();
+            char[] edge_labels = r.getEdgeLabels();
+            DictionaryState[] edge_states = r.getEdgeStates();
+            for (int i = 0; i < edge_labels.length; i++) {
+                char a = edge_labels[i];
+                DictionaryState u = edge_states[i];
 
                 // state u is accessible so enqueue it
                 queue.offer(u);
 
-                DictionaryAutomaton.State v0 = fail_transitions.get(r);
-                DictionaryAutomaton.State v1 = null;
+                DictionaryState v0 = fail_transitions.get(r);
+                DictionaryState v1 = null;
                 boolean done = false;
                 while (!done) {
                     v1 = v0.getNextState(a);
@@ -85,17 +133,23 @@ public final class AhoCorasickAutomaton
                     results = new LinkedList<String>();
                 }
                 if (v0.getElement() != null) {
-                    results.add((String) v0.getElement());
+                    results.add(v0.getElement());
+                }
+                // v0 is shallower than u, so its own matches are complete
+                if (mappings.get(v0) != null) {
+                    results.addAll(mappings.get(v0));
                 }
                 mappings.put(u, results);
             }
         }
+        return new Tables(root_state, fail_transitions, mappings);
     }
 
     public List<String> matchAll(String word) {
+        Tables current_tables = tables;
         List<String> results = new LinkedList<String>();
-        DictionaryAutomaton.State current_state = this.getCurrentState();
-        DictionaryAutomaton.State next_state = null;
+        DictionaryState current_state = current_tables.root;
+        DictionaryState next_state = null;
 
         for (char c : word.toCharArray()) {
             next_state = null;
@@ -103,15 +157,15 @@ public final class AhoCorasickAutomaton
                 next_state = current_state.getNextState(c);
                 if (next_state == null) {
                     next_state = null;
-                    current_state = fail_transitions.get(current_state);
+                    current_state = current_tables.fail_transitions.get(current_state);
                 }
             }
             current_state = next_state;
             if (current_state.getElement() != null) {
-                results.add((String) current_state.getElement());
+                results.add(current_state.getElement());
             }
-            if (mappings.get(current_state) != null) {
-                results.addAll(mappings.get(current_state));
+            if (current_tables.mappings.get(current_state) != null) {
+                results.addAll(current_tables.mappings.get(current_state));
             }
         }
 
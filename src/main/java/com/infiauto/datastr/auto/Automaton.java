@@ -10,6 +10,12 @@ import java.util.*;
 public abstract class Automaton<INTYPE, ELEMTYPE>
         implements Serializable {
 
+    /**
+     * Pinned to the value computed for the original class, so that automata
+     * serialized by earlier versions can still be read.
+     */
+    private static final long serialVersionUID = -3167021649972153352L;
+
     /**
      * Atomic state that forms the basic building block of the automaton.
      * @param <TP> Type of key for state transitions.
@@ -98,8 +104,12 @@ public abstract class Automaton<INTYPE, ELEMTYPE>
     public State<INTYPE> getCurrentState() {
         return root_node;
     }
-    protected State root_node;
-    private int state_count;
+    /**
+     * Volatile so that a root replaced by an update is safely published to
+     * the threads reading the automaton.
+     */
+    protected volatile State root_node;
+    protected int state_count;
 
     /**
      * Initialize an empty Automaton.
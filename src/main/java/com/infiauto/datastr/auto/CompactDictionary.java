@@ -0,0 +1,93 @@
+package com.infiauto.datastr.auto;
+
+/**
+ * A class implementing the CompactDictionary interface stores a dictionary
+ * automaton in flat arrays or buffers instead of as State objects.  Its
+ * states are addressed by int handles, and the outgoing edges of a state
+ * are numbered from zero in ascending order of their labels.
+ * @author Infinite Automata
+ */
+public interface CompactDictionary {
+
+    /**
+     * Handle returned when a transition does not exist.
+     */
+    public static final int NO_STATE = -1;
+
+    /**
+     * Gets the start state of the dictionary.
+     * @return handle of the root state
+     */
+    public int getRootState();
+
+    /**
+     * Tells whether a word ends in a state.
+     * @param state handle of the state
+     * @return true if a word ends in the state
+     */
+    public boolean isAccept(int state);
+
+    /**
+     * Gets the number of outgoing edges of a state.
+     * @param state handle of the state
+     * @return number of outgoing edges
+     */
+    public int getEdgeCount(int state);
+
+    /**
+     * Gets the label of an outgoing edge.
+     * @param state handle of the state
+     * @param edge index of the edge, below getEdgeCount(state)
+     * @return label of the edge
+     */
+    public char getEdgeLabel(int state, int edge);
+
+    /**
+     * Gets the target of an outgoing edge.
+     * @param state handle of the state
+     * @param edge index of the edge, below getEdgeCount(state)
+     * @return handle of the target state
+     */
+    public int getEdgeTarget(int state, int edge);
+
+    /**
+     * Follows the edge of a state with the given label.
+     * @param state handle of the state
+     * @param c label of the edge
+     * @return handle of the target state, or NO_STATE if there is no such
+     * edge
+     */
+    public int getNextState(int state, char c);
+
+    /**
+     * Follows the path spelled by a prefix from the root.
+     * @param prefix labels of the path
+     * @return handle of the state the prefix leads to, or NO_STATE if
+     * no word starts with the prefix
+     */
+    public int getState(CharSequence prefix);
+
+    /**
+     * Gets the length of the shortest word suffix that leads from a state
+     * to an accepting state.
+     * @param state handle of the state
+     * @return length of the shortest suffix
+     */
+    public int getMinSuffixLength(int state);
+
+    /**
+     * Gets the length of the longest word suffix that leads from a state to
+     * an accepting state.
+     * @param state handle of the state
+     * @return length of the longest suffix, or -1 if no word lies below
+     * the state
+     */
+    public int getMaxSuffixLength(int state);
+
+    /**
+     * Tells whether a word is in the dictionary.
+     * @param word word to look up
+     * @return true if the word is in the dictionary
+     */
+    public boolean match(String word);
+}
@@ -5,43 +5,606 @@ import static java.lang.System.err;
 import java.util.*;
 
 /**
- * Automaton class used to represent a dictionary.
+ * Automaton class used to represent a dictionary.  Words can be added and
+ * removed while other threads search the dictionary: states are never
+ * modified once published, an update copies the states along the path of
+ * its word and then publishes the new root, and every search follows the
+ * root it read when it began.
  * @author Infinite Automata
  */
 public class DictionaryAutomaton
         extends Automaton<Character, String>
-        implements Serializable {
+        implements Iterable<String>, Serializable {
 
-    private Set<Character> alphabet;
+    /**
+     * Pinned to the value computed for the original class, so that
+     * dictionaries serialized before the compact states existed can still
+     * be read and converted by readObject.
+     */
+    private static final long serialVersionUID = 6023191015213346573L;
 
-    private static Map<Character[], String> buildInitialInput(List<String> word_list) {
-        HashMap<Character[], String> results = new HashMap<Character[], String>();
-        for (String word : word_list) {
-            Character[] path = new Character[word.length()];
-            int i = 0;
-            for (char c : word.toCharArray()) {
-                path[i++] = c;
+    private static final char[] NO_EDGE_LABELS = new char[0];
+    private static final DictionaryAutomaton.DictionaryState[] NO_EDGE_STATES = new DictionaryAutomaton.DictionaryState[0];
+    /**
+     * Whether accepting states hold their word as their element.  Without
+     * it they carry only the accept flag and the weight, and words are
+     * rebuilt from their paths.
+     */
+    private boolean store_words = true;
+    /**
+     * Replaced rather than modified once the dictionary is published, so
+     * that readers never see it change.
+     */
+    private volatile Set<Character> alphabet;
+
+    /**
+     * Dictionary state whose outgoing edges are stored as a sorted array of
+     * labels with a parallel array of target states, so that the edges can
+     * be iterated directly and looked up without boxing.
+     */
+    public class DictionaryState
+            extends State<Character> {
+
+        private static final long serialVersionUID = 1L;
+        private char[] edge_labels = NO_EDGE_LABELS;
+        private DictionaryState[] edge_states = NO_EDGE_STATES;
+        private boolean accept;
+        private int weight;
+        private int max_weight;
+        private int min_suffix_length;
+        private int max_suffix_length;
+        private int word_count;
+
+        protected DictionaryState(String element) {
+            super(element);
+            // edges are held in the arrays only
+            this.next_states = Collections.emptyMap();
+            this.accept = (element != null);
+        }
+
+        /**
+         * Takes over the word, weight, annotations and edges of another
+         * state.  The edge arrays are shared with that state.
+         * @param state state to copy
+         */
+        protected void assign(DictionaryState state) {
+            setElement(state.getElement());
+            this.edge_labels = state.edge_labels;
+            this.edge_states = state.edge_states;
+            this.accept = state.accept;
+            this.weight = state.weight;
+            this.max_weight = state.max_weight;
+            this.min_suffix_length = state.min_suffix_length;
+            this.max_suffix_length = state.max_suffix_length;
+            this.word_count = state.word_count;
+        }
+
+        /**
+         * Tells whether a word ends in this state.  States of a minimal
+         * dictionary accept without holding the word as their element.
+         * @return true if a word ends in this state
+         */
+        @Override
+        public boolean isAccept() {
+            return accept;
+        }
+
+        /**
+         * Get the labels of the outgoing edges in ascending order.  The
+         * returned array must not be modified.
+         * @return labels of the outgoing edges
+         */
+        public char[] getEdgeLabels() {
+            return edge_labels;
+        }
+
+        /**
+         * Get the targets of the outgoing edges, in the same order as
+         * getEdgeLabels.  The returned array must not be modified.
+         * @return targets of the outgoing edges
+         */
+        public DictionaryState[] getEdgeStates() {
+            return edge_states;
+        }
+
+        /**
+         * Get the weight of the word ending in this state.
+         * @return weight of the word, zero for states that do not accept
+         * and for dictionaries built without weights
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * Get the greatest weight of any word ending in this state or below
+         * it, as an upper bound for searches ranked by weight.
+         * @return greatest weight in the subtree of this state
+         */
+        public int getMaxWeight() {
+            return max_weight;
+        }
+
+        /**
+         * Get the length of the shortest word suffix that leads from this
+         * state to an accepting state.
+         * @return length of the shortest suffix, zero if this state accepts
+         */
+        public int getMinSuffixLength() {
+            return min_suffix_length;
+        }
+
+        /**
+         * Get the length of the longest word suffix that leads from this
+         * state to an accepting state.
+         * @return length of the longest suffix, or -1 if no word lies below
+         * this state
+         */
+        public int getMaxSuffixLength() {
+            return max_suffix_length;
+        }
+
+        /**
+         * Get the number of words ending in this state or below it.
+         * @return number of words in the subtree of this state
+         */
+        public int getWordCount() {
+            return word_count;
+        }
+
+        /**
+         * Gets the ordinal of a word among the words below this state, as
+         * DictionaryAutomaton.indexOf does for the root.
+         * @param word suffix leading from this state
+         * @return ordinal of the word, or -1 if it does not lead from this
+         * state to an accepting state
+         */
+        public int indexOf(CharSequence word) {
+            DictionaryState state = this;
+            int ordinal = 0;
+            for (int i = 0; i < word.length(); i++) {
+                if (state.accept) {
+                    ordinal++;
+                }
+                int edge = Arrays.binarySearch(state.edge_labels, word.charAt(i));
+                if (edge < 0) {
+                    return -1;
+                }
+                for (int j = 0; j < edge; j++) {
+                    ordinal += state.edge_states[j].word_count;
+                }
+                state = state.edge_states[edge];
+            }
+            return (state.accept ? ordinal : -1);
+        }
+
+        @Override
+        public int getNextStateCount() {
+            return edge_labels.length;
+        }
+
+        @Override
+        protected State<Character> getNextState(Character c) {
+            return getNextState(c.charValue());
+        }
+
+        protected DictionaryState getNextState(char c) {
+            int i = Arrays.binarySearch(edge_labels, c);
+            return (i >= 0 ? edge_states[i] : null);
+        }
+
+        protected void setEdges(char[] edge_labels, DictionaryState[] edge_states) {
+            this.edge_labels = edge_labels;
+            this.edge_states = edge_states;
+        }
+    }
+
+    /**
+     * Builds a minimal DictionaryAutomaton, also known as a DAWG, in which
+     * identical suffix subtrees are shared.  Words must be added in
+     * ascending order, which allows every subtree to be minimized as soon
+     * as the input has moved past it (Daciuk et al., Incremental
+     * Construction of Minimal Acyclic Finite-State Automata).  Accepting
+     * states carry no word, so that the states ending different words can
+     * be merged; words are rebuilt from their paths instead.
+     */
+    public static class Builder {
+
+        private DictionaryAutomaton automaton = new DictionaryAutomaton();
+        /**
+         * Minimized states, each registered under its own signature.
+         */
+        private HashMap<StateSignature, DictionaryState> register = new HashMap<StateSignature, DictionaryState>();
+        /**
+         * States along the last word added, which are not yet minimized.
+         */
+        private DictionaryState[] path = new DictionaryState[32];
+        private char[] last_word = new char[32];
+        private int last_length = -1;
+        private BitSet alphabet = new BitSet();
+
+        public Builder() {
+            path[0] = automaton.new DictionaryState(null);
+        }
+
+        /**
+         * Adds a word of weight zero.
+         * @param word word following all words added before
+         * @return this builder
+         */
+        public Builder add(CharSequence word) {
+            return add(word, 0);
+        }
+
+        /**
+         * Adds a weighted word.  Adding the last word again replaces its
+         * weight, like TrieBuilder does.
+         * @param word word following all words added before
+         * @param weight non-negative weight of the word
+         * @return this builder
+         */
+        public Builder add(CharSequence word, int weight) {
+            if (automaton == null) {
+                throw new IllegalStateException("The automaton has already been built");
+            }
+            if (weight < 0) {
+                throw new IllegalArgumentException("weights must not be negative");
+            }
+
+            int length = word.length();
+            int prefix_length = 0;
+            int limit = Math.min(length, last_length);
+            while ((prefix_length < limit) && (word.charAt(prefix_length) == last_word[prefix_length])) {
+                prefix_length++;
+            }
+            if (last_length >= 0) {
+                if ((prefix_length == length) && (length == last_length)) {
+                    // the state of the last word is not minimized yet
+                    path[length].weight = weight;
+                    return this;
+                }
+                if ((prefix_length == length)
+                        || ((prefix_length < limit) && (word.charAt(prefix_length) < last_word[prefix_length]))) {
+                    throw new IllegalArgumentException("Words must be added in ascending order");
+                }
+            }
+
+            // the part of the last word beyond the common prefix is complete
+            minimize(prefix_length);
+
+            if (path.length <= length) {
+                path = Arrays.copyOf(path, (length + 1) * 2);
+                last_word = Arrays.copyOf(last_word, (length + 1) * 2);
+            }
+            for (int i = prefix_length; i < length; i++) {
+                char c = word.charAt(i);
+                DictionaryState state = path[i];
+                DictionaryState next_state = automaton.new DictionaryState(null);
+                int edge_count = state.edge_labels.length;
+                char[] edge_labels = Arrays.copyOf(state.edge_labels, edge_count + 1);
+                DictionaryState[] edge_states = Arrays.copyOf(state.edge_states, edge_count + 1);
+                edge_labels[edge_count] = c;
+                edge_states[edge_count] = next_state;
+                state.setEdges(edge_labels, edge_states);
+                path[i + 1] = next_state;
+                last_word[i] = c;
+                alphabet.set(c);
+            }
+            path[length].accept = true;
+            path[length].weight = weight;
+            last_length = length;
+            return this;
+        }
+
+        /**
+         * Adds words of weight zero as they are returned by an iterator.
+         * @param words words in ascending order
+         * @return this builder
+         */
+        public Builder addAll(Iterator<? extends CharSequence> words) {
+            while (words.hasNext()) {
+                add(words.next());
+            }
+            return this;
+        }
+
+        /**
+         * Adds words of weight zero read one per line, with surrounding
+         * whitespace trimmed and blank lines skipped.  The reader is not
+         * closed.
+         * @param reader source of words in ascending order
+         * @return this builder
+         * @throws IOException if the reader fails
+         */
+        public Builder addAll(Reader reader) throws IOException {
+            LineReader lines = new LineReader(reader);
+            while (lines.next()) {
+                add(lines.line);
+            }
+            return this;
+        }
+
+        /**
+         * Replaces every state of the last word below the given depth by an
+         * equivalent registered state, or registers it if there is none.
+         * @param depth length of the prefix to keep unminimized
+         */
+        private void minimize(int depth) {
+            for (int i = last_length; i > depth; i--) {
+                DictionaryState state = path[i];
+                annotate(state);
+                StateSignature signature = new StateSignature(state);
+                DictionaryState registered = register.get(signature);
+                if (registered == null) {
+                    register.put(signature, state);
+                } else {
+                    // the state is always the last next state of its parent
+                    DictionaryState[] parent_states = path[i - 1].edge_states;
+                    parent_states[parent_states.length - 1] = registered;
+                }
+            }
+        }
+
+        /**
+         * Finishes the automaton.  The builder cannot be used afterwards.
+         * @return minimal automaton of all the words added
+         */
+        public DictionaryAutomaton build() {
+            if (automaton == null) {
+                throw new IllegalStateException("The automaton has already been built");
+            }
+            minimize(0);
+            annotate(path[0]);
+
+            DictionaryAutomaton result = automaton;
+            result.root_node = path[0];
+            result.state_count = register.size();
+            result.store_words = false;
+            for (int c = alphabet.nextSetBit(0); c >= 0; c = alphabet.nextSetBit(c + 1)) {
+                result.alphabet.add((char) c);
+            }
+            automaton = null;
+            register = null;
+            path = null;
+            return result;
+        }
+    }
+
+    /**
+     * Builds a DictionaryAutomaton from words in any order, consuming them
+     * one at a time.  Each word is inserted directly into the trie of
+     * DictionaryStates, so that no path or word list is held besides the
+     * automaton itself and dictionaries can be built from streams.
+     * By default the result is the same as that of the List constructor.
+     */
+    public static class TrieBuilder {
+
+        private DictionaryAutomaton automaton = new DictionaryAutomaton();
+
+        public TrieBuilder() {
+            this(true);
+        }
+
+        /**
+         * @param store_words whether accepting states hold their word as
+         * their element, which costs a String per word
+         * @see DictionaryAutomaton#DictionaryAutomaton(List, boolean)
+         */
+        public TrieBuilder(boolean store_words) {
+            automaton.root_node = automaton.new DictionaryState(null);
+            automaton.store_words = store_words;
+        }
+
+        /**
+         * Adds a word of weight zero.
+         * @param word word to add
+         * @return this builder
+         */
+        public TrieBuilder add(CharSequence word) {
+            return add(word, 0);
+        }
+
+        /**
+         * Adds a weighted word.  Adding a word again replaces its weight.
+         * @param word word to add
+         * @param weight non-negative weight of the word
+         * @return this builder
+         */
+        public TrieBuilder add(CharSequence word, int weight) {
+            if (automaton == null) {
+                throw new IllegalStateException("The automaton has already been built");
+            }
+            automaton.insert(word, weight);
+            return this;
+        }
+
+        /**
+         * Adds words of weight zero as they are returned by an iterator.
+         * @param words words to add
+         * @return this builder
+         */
+        public TrieBuilder addAll(Iterator<? extends CharSequence> words) {
+            while (words.hasNext()) {
+                add(words.next());
+            }
+            return this;
+        }
+
+        /**
+         * Adds words of weight zero read one per line, with surrounding
+         * whitespace trimmed and blank lines skipped.  The reader is not
+         * closed.
+         * @param reader source of words
+         * @return this builder
+         * @throws IOException if the reader fails
+         */
+        public TrieBuilder addAll(Reader reader) throws IOException {
+            LineReader lines = new LineReader(reader);
+            while (lines.next()) {
+                add(lines.line);
+            }
+            return this;
+        }
+
+        /**
+         * Finishes the automaton.  The builder cannot be used afterwards.
+         * @return automaton of all the words added
+         */
+        public DictionaryAutomaton build() {
+            if (automaton == null) {
+                throw new IllegalStateException("The automaton has already been built");
+            }
+            DictionaryAutomaton result = automaton;
+            result.annotateAll();
+            automaton = null;
+            return result;
+        }
+    }
+
+    /**
+     * Reads trimmed, non-blank lines into a reused buffer, so that reading
+     * a word list creates no String per line.
+     */
+    private static final class LineReader {
+
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position = 0;
+        private int limit = 0;
+        private final StringBuilder line = new StringBuilder();
+
+        private LineReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Reads the next non-blank line into line.
+         * @return false at the end of the input
+         * @throws IOException if the reader fails
+         */
+        private boolean next() throws IOException {
+            line.setLength(0);
+            while (true) {
+                if (position == limit) {
+                    limit = reader.read(buffer, 0, buffer.length);
+                    position = 0;
+                    if (limit < 0) {
+                        limit = 0;
+                        return trim();
+                    }
+                }
+                char c = buffer[position++];
+                if ((c == '\n') || (c == '\r')) {
+                    if (trim()) {
+                        return true;
+                    }
+                } else {
+                    line.append(c);
+                }
+            }
+        }
+
+        /**
+         * Strips whitespace from both ends of line.
+         * @return true if anything is left
+         */
+        private boolean trim() {
+            int end = line.length();
+            while ((end > 0) && (line.charAt(end - 1) <= ' ')) {
+                end--;
+            }
+            int start = 0;
+            while ((start < end) && (line.charAt(start) <= ' ')) {
+                start++;
             }
-            results.put(path, word);
+            line.setLength(end);
+            line.delete(0, start);
+            return end > start;
+        }
+    }
+
+    /**
+     * Hash key of a state of a minimal automaton under construction.  Two
+     * states are equivalent if they agree on acceptance and weight and have
+     * the same edges to the same, already registered, next states.
+     */
+    private static final class StateSignature {
+
+        private final DictionaryState state;
+        private final int hash_code;
+
+        private StateSignature(DictionaryState state) {
+            this.state = state;
+            int h = (state.accept ? 1 : 0) * 31 + state.weight;
+            for (int i = 0; i < state.edge_labels.length; i++) {
+                h = h * 31 + state.edge_labels[i];
+                h = h * 31 + System.identityHashCode(state.edge_states[i]);
+            }
+            this.hash_code = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash_code;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StateSignature)) {
+                return false;
+            }
+            DictionaryState other = ((StateSignature) o).state;
+            if ((state.accept != other.accept)
+                    || (state.weight != other.weight)
+                    || !Arrays.equals(state.edge_labels, other.edge_labels)) {
+                return false;
+            }
+            for (int i = 0; i < state.edge_states.length; i++) {
+                if (state.edge_states[i] != other.edge_states[i]) {
+                    return false;
+                }
+            }
+            return true;
         }
-        return results;
     }
 
     {
         this.alphabet = new TreeSet<Character>();
     }
 
+    /**
+     * Construct an empty DictionaryAutomaton for a Builder to fill in.
+     */
+    private DictionaryAutomaton() {
+        super();
+    }
+
     /**
      * Construct a DictionaryAutomaton instance based on a List of Strings.
      * @param word_list
      */
     public DictionaryAutomaton(List<String> word_list) {
-        super(buildInitialInput(word_list));
+        this(word_list, true);
+    }
+
+    /**
+     * Construct a DictionaryAutomaton instance based on a List of Strings,
+     * optionally without keeping the words themselves.  Accepting states
+     * then carry only their accept flag and weight, getElement returns
+     * null for them, and words are rebuilt from their paths wherever they
+     * are needed, which searches do anyway.  That saves a String object
+     * per word.
+     * @param word_list words of the dictionary
+     * @param store_words whether accepting states hold their word as
+     * their element
+     */
+    public DictionaryAutomaton(List<String> word_list, boolean store_words) {
+        this.root_node = new DictionaryState(null);
+        this.store_words = store_words;
         for (String word : word_list) {
-            for (char c : word.toCharArray()) {
-                this.alphabet.add(c);
-            }
+            insert(word, 0);
         }
+        annotateAll();
     }
 
     /**
@@ -49,14 +612,186 @@ public class DictionaryAutomaton
      * @param word_list Variable argument list of Strings
      */
     public DictionaryAutomaton(String... word_list) {
-        super(buildInitialInput(Arrays.asList(word_list)));
-        for (String word : word_list) {
-            for (char c : word.toCharArray()) {
-                this.alphabet.add(c);
+        this(Arrays.asList(word_list));
+    }
+
+    /**
+     * Construct a DictionaryAutomaton instance of weighted words, such as
+     * words with their corpus frequencies.
+     * @param word_weights mapping from each word to its non-negative weight
+     */
+    public DictionaryAutomaton(Map<String, Integer> word_weights) {
+        this.root_node = new DictionaryState(null);
+        for (Map.Entry<String, Integer> entry : word_weights.entrySet()) {
+            Integer weight = entry.getValue();
+            insert(entry.getKey(), (weight == null ? 0 : weight));
+        }
+        annotateAll();
+    }
+
+    /**
+     * Adds a word to the trie, keeping the edges of every state sorted.
+     * The annotations are left to annotateAll.
+     * @param word word to add
+     * @param weight non-negative weight of the word
+     */
+    private void insert(CharSequence word, int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("weights must not be negative");
+        }
+
+        DictionaryState state = getCurrentState();
+        int length = word.length();
+        for (int i = 0; i < length; i++) {
+            char c = word.charAt(i);
+            int edge = Arrays.binarySearch(state.edge_labels, c);
+            if (edge >= 0) {
+                state = state.edge_states[edge];
+                continue;
+            }
+
+            edge = -edge - 1;
+            int edge_count = state.edge_labels.length;
+            char[] edge_labels = new char[edge_count + 1];
+            DictionaryState[] edge_states = new DictionaryState[edge_count + 1];
+            System.arraycopy(state.edge_labels, 0, edge_labels, 0, edge);
+            System.arraycopy(state.edge_states, 0, edge_states, 0, edge);
+            System.arraycopy(state.edge_labels, edge, edge_labels, edge + 1, edge_count - edge);
+            System.arraycopy(state.edge_states, edge, edge_states, edge + 1, edge_count - edge);
+            DictionaryState next_state = new DictionaryState(null);
+            edge_labels[edge] = c;
+            edge_states[edge] = next_state;
+            state.setEdges(edge_labels, edge_states);
+            alphabet.add(c);
+            state_count++;
+            state = next_state;
+        }
+        if (!state.accept) {
+            if (store_words) {
+                state.setElement(word.toString());
+            }
+            state.accept = true;
+        }
+        state.weight = weight;
+    }
+
+    /**
+     * Annotates every state once all words have been inserted.
+     */
+    private void annotateAll() {
+        // depth-first, annotating every state once all its next states are
+        DictionaryState[] states = new DictionaryState[16];
+        int[] next_edges = new int[16];
+        int depth = 0;
+        states[0] = getCurrentState();
+        while (depth >= 0) {
+            DictionaryState state = states[depth];
+            int edge = next_edges[depth]++;
+            if (edge == state.edge_states.length) {
+                annotate(state);
+                depth--;
+                continue;
+            }
+            depth++;
+            if (depth == states.length) {
+                states = Arrays.copyOf(states, depth * 2);
+                next_edges = Arrays.copyOf(next_edges, depth * 2);
             }
+            states[depth] = state.edge_states[edge];
+            next_edges[depth] = 0;
         }
     }
 
+    /**
+     * Converts the HashMap-based trie built by Automaton into
+     * DictionaryStates with sorted edge arrays, annotating every state with
+     * the greatest word weight and the range of suffix lengths found below
+     * it.
+     * @param root root of the trie to convert
+     * @return root of the converted trie
+     */
+    private DictionaryState freeze(State<Character> root) {
+        DictionaryState new_root = new DictionaryState(root.getElement());
+        // every state is listed after its parent
+        ArrayList<DictionaryState> frozen_states = new ArrayList<DictionaryState>();
+        Stack<State<Character>> old_states = new Stack<State<Character>>();
+        Stack<DictionaryState> new_states = new Stack<DictionaryState>();
+        old_states.push(root);
+        new_states.push(new_root);
+
+        while (!old_states.isEmpty()) {
+            State<Character> old_state = old_states.pop();
+            DictionaryState new_state = new_states.pop();
+            frozen_states.add(new_state);
+
+            Set<Character> labels = old_state.next_states.keySet();
+            char[] edge_labels = new char[labels.size()];
+            int i = 0;
+            for (Character c : labels) {
+                edge_labels[i++] = c;
+            }
+            Arrays.sort(edge_labels);
+
+            DictionaryState[] edge_states = new DictionaryState[edge_labels.length];
+            for (i = 0; i < edge_labels.length; i++) {
+                State<Character> old_next = old_state.getNextState(edge_labels[i]);
+                edge_states[i] = new DictionaryState(old_next.getElement());
+                old_states.push(old_next);
+                new_states.push(edge_states[i]);
+            }
+            new_state.setEdges(edge_labels, edge_states);
+        }
+
+        for (int i = frozen_states.size() - 1; i >= 0; i--) {
+            annotate(frozen_states.get(i));
+        }
+
+        return new_root;
+    }
+
+    /**
+     * Computes the annotations of a state from those of its next states,
+     * which must already be annotated.  Counting the words below every
+     * state numbers the words by their lexicographic rank, which makes
+     * the automaton a minimal perfect hash (see indexOf and wordAt).
+     * @param state state to annotate
+     */
+    private static void annotate(DictionaryState state) {
+        int max_weight = state.weight;
+        int min_suffix_length = (state.accept ? 0 : Integer.MAX_VALUE);
+        int max_suffix_length = (state.accept ? 0 : -1);
+        int word_count = (state.accept ? 1 : 0);
+        for (DictionaryState next_state : state.edge_states) {
+            max_weight = Math.max(max_weight, next_state.max_weight);
+            min_suffix_length = Math.min(min_suffix_length, next_state.min_suffix_length + 1);
+            max_suffix_length = Math.max(max_suffix_length, next_state.max_suffix_length + 1);
+            word_count += next_state.word_count;
+        }
+        state.max_weight = max_weight;
+        state.min_suffix_length = min_suffix_length;
+        state.max_suffix_length = max_suffix_length;
+        state.word_count = word_count;
+    }
+
+    /**
+     * Converts dictionaries serialized before states kept their edges in
+     * arrays.  Their states always hold their words.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (!(root_node instanceof DictionaryState)) {
+            store_words = true;
+            root_node = freeze((State<Character>) root_node);
+        }
+    }
+
+    @Override
+    public DictionaryState getCurrentState() {
+        return (DictionaryState) root_node;
+    }
+
     /**
      * Gets the list of all unique characters in the dictionary, which
      * is also known as the alphabet.
@@ -66,10 +801,74 @@ public class DictionaryAutomaton
         return alphabet;
     }
 
+    /**
+     * Iterates over the words of the dictionary in lexicographic order,
+     * rebuilding every word from its path.
+     * @return iterator over the words of the dictionary
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            private DictionaryState[] states = new DictionaryState[]{getCurrentState()};
+            private int[] next_edges = new int[1];
+            private char[] path = new char[16];
+            private int depth = 0;
+            private boolean root_pending = states[0].isAccept();
+            private String next_word = null;
+
+            @Override
+            public boolean hasNext() {
+                if (root_pending) {
+                    root_pending = false;
+                    next_word = "";
+                }
+                while ((next_word == null) && (depth >= 0)) {
+                    DictionaryState state = states[depth];
+                    int edge = next_edges[depth]++;
+                    if (edge == state.edge_labels.length) {
+                        depth--;
+                        continue;
+                    }
+
+                    // descend along the edge, words being found in preorder
+                    depth++;
+                    if (depth == states.length) {
+                        states = Arrays.copyOf(states, depth * 2);
+                        next_edges = Arrays.copyOf(next_edges, depth * 2);
+                        path = Arrays.copyOf(path, Math.max(path.length, depth * 2));
+                    }
+                    states[depth] = state.edge_states[edge];
+                    next_edges[depth] = 0;
+                    path[depth - 1] = state.edge_labels[edge];
+                    if (states[depth].accept) {
+                        next_word = new String(path, 0, depth);
+                    }
+                }
+                return next_word != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String word = next_word;
+                next_word = null;
+                return word;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
     public boolean match(String word) {
-        DictionaryAutomaton.State state = getCurrentState();
-        for (char c : word.toCharArray()) {
-            state = state.getNextState(c);
+        DictionaryState state = getCurrentState();
+        for (int i = 0; i < word.length(); i++) {
+            state = state.getNextState(word.charAt(i));
             if (state == null) {
                 return false;
             }
@@ -77,9 +876,361 @@ public class DictionaryAutomaton
         return state.isAccept();
     }
 
+    /**
+     * Finds the heaviest words starting with a prefix, such as the most
+     * popular completions of what has been typed so far.  The subtree below
+     * the prefix is searched best-first: every branch is queued under the
+     * greatest weight below it, so a word is taken from the queue only once
+     * no branch left can beat it, and branches lighter than the k-th
+     * result are never opened.  The work depends on max_results and the
+     * length of the words, not on the size of the subtree.  Words of equal
+     * weight are ranked arbitrarily.
+     * @param prefix prefix of the words to find
+     * @param max_results maximum number of words to return
+     * @return at most max_results words starting with the prefix, heaviest
+     * first
+     * @see #DictionaryAutomaton(Map)
+     */
+    public List<String> complete(String prefix, int max_results) {
+        if (max_results < 0) {
+            throw new IllegalArgumentException("max_results must not be negative");
+        }
+
+        List<String> result = new ArrayList<String>(Math.min(max_results, 64));
+        DictionaryState state = getCurrentState();
+        for (int i = 0; (i < prefix.length()) && (state != null); i++) {
+            state = state.getNextState(prefix.charAt(i));
+        }
+        if ((state == null) || (max_results == 0)) {
+            return result;
+        }
+
+        PriorityQueue<Completion> queue = new PriorityQueue<Completion>();
+        queue.add(new Completion(state, state.max_weight, false, null, '\0', prefix.length()));
+        while (!queue.isEmpty() && (result.size() < max_results)) {
+            Completion completion = queue.poll();
+            if (completion.word) {
+                result.add(completion.toString(prefix));
+                continue;
+            }
+
+            state = completion.state;
+            if (state.accept) {
+                if (state.weight == completion.bound) {
+                    // nothing left in the queue can beat this word
+                    result.add(completion.toString(prefix));
+                } else {
+                    queue.add(new Completion(state, state.weight, true, completion.parent, completion.label, completion.length));
+                }
+            }
+            for (int i = 0; i < state.edge_states.length; i++) {
+                DictionaryState next_state = state.edge_states[i];
+                queue.add(new Completion(next_state, next_state.max_weight, false, completion, state.edge_labels[i], completion.length + 1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Entry of the queue of complete, either a branch bounded by the
+     * greatest weight below it or a word with its own weight.  Entries
+     * link to their parents, so that paths are shared and words are only
+     * spelled out once they are returned.
+     */
+    private static final class Completion implements Comparable<Completion> {
+
+        private final DictionaryAutomaton.DictionaryState state;
+        private final int bound;
+        private final boolean word;
+        private final Completion parent;
+        private final char label;
+        private final int length;
+
+        private Completion(DictionaryAutomaton.DictionaryState state,
+                int bound,
+                boolean word,
+                Completion parent,
+                char label,
+                int length) {
+            this.state = state;
+            this.bound = bound;
+            this.word = word;
+            this.parent = parent;
+            this.label = label;
+            this.length = length;
+        }
+
+        /**
+         * Spells out the word of this entry.
+         * @param prefix prefix the search started from
+         * @return prefix followed by the labels from the prefix to here
+         */
+        private String toString(String prefix) {
+            char[] chars = new char[length];
+            prefix.getChars(0, prefix.length(), chars, 0);
+            for (Completion completion = this; completion.parent != null; completion = completion.parent) {
+                chars[completion.length - 1] = completion.label;
+            }
+            return new String(chars);
+        }
+
+        @Override
+        public int compareTo(Completion other) {
+            // heaviest first
+            if (bound != other.bound) {
+                return (bound > other.bound ? -1 : 1);
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Gets the number of states the dictionary was built with.  Updates
+     * through add and remove are not counted: they copy states that other
+     * words of a minimal dictionary may still share, so the number of
+     * distinct states cannot be kept without walking the whole dictionary.
+     * @return number of states when the dictionary was built
+     */
+    @Override
+    public int getStateCount() {
+        return state_count;
+    }
+
+    /**
+     * Gets the number of words in the dictionary.
+     * @return number of words
+     */
+    public int getWordCount() {
+        return getCurrentState().word_count;
+    }
+
+    /**
+     * Gets the ordinal of a word, which is the number of words of the
+     * dictionary that precede it lexicographically.  The ordinals of the
+     * words are dense in [0, getWordCount()), so they can index arrays
+     * instead of hashing the words.  Adding or removing a word renumbers
+     * the words that follow it.
+     * @param word word to look up
+     * @return ordinal of the word, or -1 if the word is not in the
+     * dictionary
+     */
+    public int indexOf(CharSequence word) {
+        return getCurrentState().indexOf(word);
+    }
+
+    /**
+     * Gets the word with the given ordinal, the inverse of indexOf.
+     * @param ordinal ordinal of the word
+     * @return word with the ordinal
+     * @throws IndexOutOfBoundsException if the ordinal is negative or not
+     * below getWordCount()
+     */
+    public String wordAt(int ordinal) {
+        DictionaryState state = getCurrentState();
+        if ((ordinal < 0) || (ordinal >= state.word_count)) {
+            throw new IndexOutOfBoundsException("ordinal " + ordinal + " outside [0, " + state.word_count + ")");
+        }
+
+        StringBuilder word = new StringBuilder();
+        int remaining = ordinal;
+        while (true) {
+            if (state.accept) {
+                if (remaining == 0) {
+                    return word.toString();
+                }
+                remaining--;
+            }
+            int edge = 0;
+            while (remaining >= state.edge_states[edge].word_count) {
+                remaining -= state.edge_states[edge].word_count;
+                edge++;
+            }
+            word.append(state.edge_labels[edge]);
+            state = state.edge_states[edge];
+        }
+    }
+
+    /**
+     * Adds a word of weight zero, or sets the weight of a word already in
+     * the dictionary to zero.
+     * @param word word to add
+     * @return true if the dictionary changed
+     * @see #add(String, int)
+     */
+    public boolean add(String word) {
+        return add(word, 0);
+    }
+
+    /**
+     * Adds a weighted word, or sets the weight of a word already in the
+     * dictionary.  Searches running concurrently see the dictionary either
+     * with or without the word.  Only the states along the word are copied,
+     * so the cost depends on the length of the word and not on the size of
+     * the dictionary.  Concurrent updates are serialized.
+     * @param word word to add
+     * @param weight non-negative weight of the word
+     * @return true if the dictionary changed
+     */
+    public synchronized boolean add(String word, int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("weights must not be negative");
+        }
+        DictionaryState existing = findState(word);
+        if ((existing != null) && existing.accept && (existing.weight == weight)) {
+            return false;
+        }
+
+        int length = word.length();
+        DictionaryState[] path = new DictionaryState[length + 1];
+        path[0] = copyState(getCurrentState());
+        Set<Character> new_alphabet = null;
+        for (int i = 0; i < length; i++) {
+            char c = word.charAt(i);
+            DictionaryState state = path[i];
+            int edge = Arrays.binarySearch(state.edge_labels, c);
+            if (edge >= 0) {
+                path[i + 1] = copyState(state.edge_states[edge]);
+                state.edge_states[edge] = path[i + 1];
+                continue;
+            }
+
+            // the rest of the word is new
+            edge = -edge - 1;
+            int edge_count = state.edge_labels.length;
+            char[] edge_labels = new char[edge_count + 1];
+            DictionaryState[] edge_states = new DictionaryState[edge_count + 1];
+            System.arraycopy(state.edge_labels, 0, edge_labels, 0, edge);
+            System.arraycopy(state.edge_states, 0, edge_states, 0, edge);
+            System.arraycopy(state.edge_labels, edge, edge_labels, edge + 1, edge_count - edge);
+            System.arraycopy(state.edge_states, edge, edge_states, edge + 1, edge_count - edge);
+            path[i + 1] = new DictionaryState(null);
+            edge_labels[edge] = c;
+            edge_states[edge] = path[i + 1];
+            state.setEdges(edge_labels, edge_states);
+            if (!alphabet.contains(c)) {
+                if (new_alphabet == null) {
+                    new_alphabet = new TreeSet<Character>(alphabet);
+                }
+                new_alphabet.add(c);
+            }
+        }
+
+        DictionaryState last_state = path[length];
+        if (!last_state.accept) {
+            if (store_words) {
+                last_state.setElement(word);
+            }
+            last_state.accept = true;
+        }
+        last_state.weight = weight;
+        for (int i = length; i >= 0; i--) {
+            annotate(path[i]);
+        }
+
+        if (new_alphabet != null) {
+            alphabet = new_alphabet;
+        }
+        setRoot(path[0]);
+        return true;
+    }
+
+    /**
+     * Removes a word.  Searches running concurrently see the dictionary
+     * either with or without the word, and states left without any word
+     * below them are dropped.  Only the states along the word are copied,
+     * so the cost depends on the length of the word and not on the size of
+     * the dictionary.  Concurrent updates are serialized.
+     * @param word word to remove
+     * @return true if the word was in the dictionary
+     */
+    public synchronized boolean remove(String word) {
+        DictionaryState existing = findState(word);
+        if ((existing == null) || !existing.accept) {
+            return false;
+        }
+
+        int length = word.length();
+        DictionaryState[] path = new DictionaryState[length + 1];
+        int[] edges = new int[length];
+        path[0] = copyState(getCurrentState());
+        for (int i = 0; i < length; i++) {
+            DictionaryState state = path[i];
+            edges[i] = Arrays.binarySearch(state.edge_labels, word.charAt(i));
+            path[i + 1] = copyState(state.edge_states[edges[i]]);
+            state.edge_states[edges[i]] = path[i + 1];
+        }
+
+        DictionaryState last_state = path[length];
+        last_state.setElement(null);
+        last_state.accept = false;
+        last_state.weight = 0;
+        for (int i = length; i >= 0; i--) {
+            annotate(path[i]);
+            if ((i > 0) && (path[i].max_suffix_length < 0)) {
+                // no word is left below the state, so drop its edge
+                DictionaryState parent = path[i - 1];
+                int edge = edges[i - 1];
+                int edge_count = parent.edge_labels.length - 1;
+                char[] edge_labels = new char[edge_count];
+                DictionaryState[] edge_states = new DictionaryState[edge_count];
+                System.arraycopy(parent.edge_labels, 0, edge_labels, 0, edge);
+                System.arraycopy(parent.edge_states, 0, edge_states, 0, edge);
+                System.arraycopy(parent.edge_labels, edge + 1, edge_labels, edge, edge_count - edge);
+                System.arraycopy(parent.edge_states, edge + 1, edge_states, edge, edge_count - edge);
+                parent.setEdges(edge_labels, edge_states);
+            }
+        }
+
+        setRoot(path[0]);
+        return true;
+    }
+
+    /**
+     * Follows a word from the root along the edge arrays only, so that
+     * states overriding getNextState do not change the path.
+     * @param word word to follow
+     * @return state reached, or null if the word leaves the dictionary
+     */
+    private DictionaryState findState(String word) {
+        DictionaryState state = getCurrentState();
+        for (int i = 0; i < word.length(); i++) {
+            int edge = Arrays.binarySearch(state.edge_labels, word.charAt(i));
+            if (edge < 0) {
+                return null;
+            }
+            state = state.edge_states[edge];
+        }
+        return state;
+    }
+
+    /**
+     * Publishes the root of an updated dictionary.  Searches that start
+     * afterwards see the update.  Subclasses that derive structures of
+     * their own from the states override this to rebuild them before the
+     * root is published.
+     * @param root root of the updated dictionary
+     */
+    protected void setRoot(DictionaryState root) {
+        root_node = root;
+    }
+
+    /**
+     * Copies a published state so that the copy can be modified, including
+     * its edge arrays.
+     * @param state state to copy
+     * @return unpublished copy of the state
+     */
+    private DictionaryState copyState(DictionaryState state) {
+        DictionaryState copy = new DictionaryState(null);
+        copy.assign(state);
+        copy.setEdges(state.edge_labels.clone(), state.edge_states.clone());
+        return copy;
+    }
+
     private static void usage() {
         System.out.println("Usage: DictionaryAutomaton -g in_file_name out_file_name");
-        System.out.println("\t-g generates a dictionary from a file where each word is a new line");
+        System.out.println("\t-g generates a dictionary from a file where each word is a new line,");
+        System.out.println("\t   written in the binary format of MappedDictionary");
     }
 
     /**
@@ -98,22 +1249,16 @@ public class DictionaryAutomaton
             String dict_file_name = args[2];
 
             try {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(in_file_name)));
-                List<String> words = new ArrayList<String>();
-                String word = null;
-                while ((word = reader.readLine()) != null) {
-                    words.add(word.trim());
-                }
-                reader.close();
-
-                DictionaryAutomaton dictionary = new DictionaryAutomaton(words);
-
-                ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(dict_file_name));
+                Reader reader = new InputStreamReader(new FileInputStream(in_file_name));
+                DictionaryAutomaton dictionary;
                 try {
-                    oos.writeObject(dictionary);
+                    // the binary format rebuilds words from their paths
+                    dictionary = new TrieBuilder(false).addAll(reader).build();
                 } finally {
-                    oos.close();
+                    reader.close();
                 }
+
+                MappedDictionary.write(dictionary, new File(dict_file_name));
             } catch (IOException e) {
                 err.println(e);
                 return;
@@ -0,0 +1,376 @@
+package com.infiauto.datastr.auto;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Dictionary stored as a double-array trie (Aoe, An Efficient Digital
+ * Search Algorithm by Using a Double-Array Structure).  Every state is a
+ * slot of the parallel base and check arrays, and the edge labelled c leads
+ * from state s to slot t = base[s] + code(c) if check[t] == s, so that a
+ * transition costs one array index and one comparison.  The labels of the
+ * edges of every state are kept as well, so that traversals need not try
+ * the whole alphabet.
+ * @author Infinite Automata
+ */
+public final class DoubleArrayDictionary
+        implements CompactDictionary, Serializable {
+
+    private static final long serialVersionUID = 1L;
+    /**
+     * Check value of unused slots.
+     */
+    private static final int FREE = -1;
+    private final int[] char_codes;
+    private final int[] base;
+    private final int[] check;
+    private final int[] first_edges;
+    private final int[] edge_counts;
+    private final char[] edge_labels;
+    private final int[] min_suffix_lengths;
+    private final int[] max_suffix_lengths;
+    private final BitSet accept_states;
+    private final int word_count;
+
+    /**
+     * Construct a DoubleArrayDictionary of the given words.
+     * @param words words of the dictionary, in any order
+     */
+    public DoubleArrayDictionary(Collection<String> words) {
+        this(new TreeSet<String>(words).toArray(new String[0]));
+    }
+
+    /**
+     * Construct a DoubleArrayDictionary holding the same words as another
+     * dictionary, which may be a minimal one.
+     * @param dictionary_automaton dictionary holding the words
+     */
+    public DoubleArrayDictionary(DictionaryAutomaton dictionary_automaton) {
+        this(wordArray(dictionary_automaton));
+    }
+
+    private static String[] wordArray(DictionaryAutomaton dictionary_automaton) {
+        List<String> word_list = new ArrayList<String>();
+        for (String word : dictionary_automaton) {
+            word_list.add(word);
+        }
+        return word_list.toArray(new String[word_list.size()]);
+    }
+
+    /**
+     * Builds the double array from words in ascending order without
+     * duplicates.  The words below a state form a contiguous range of the
+     * array, so states are placed without building a trie first.
+     * @param words sorted words of the dictionary
+     */
+    private DoubleArrayDictionary(String[] words) {
+        BitSet alphabet = new BitSet();
+        int char_count = 0;
+        for (String word : words) {
+            for (int i = 0; i < word.length(); i++) {
+                alphabet.set(word.charAt(i));
+            }
+            char_count += word.length();
+        }
+        char_codes = new int[alphabet.length()];
+        int code = 0;
+        for (int c = alphabet.nextSetBit(0); c >= 0; c = alphabet.nextSetBit(c + 1)) {
+            char_codes[c] = ++code;
+        }
+
+        Builder builder = new Builder(Math.max(16, char_count / 2), code);
+        builder.build(words);
+
+        int size = builder.size;
+        base = Arrays.copyOf(builder.base, size);
+        check = Arrays.copyOf(builder.check, size);
+        first_edges = Arrays.copyOf(builder.first_edges, size);
+        edge_counts = Arrays.copyOf(builder.edge_counts, size);
+        edge_labels = Arrays.copyOf(builder.edge_labels, builder.edge_total);
+        min_suffix_lengths = Arrays.copyOf(builder.min_suffix_lengths, size);
+        max_suffix_lengths = Arrays.copyOf(builder.max_suffix_lengths, size);
+        accept_states = builder.accept_states;
+        word_count = words.length;
+    }
+
+    /**
+     * Working storage for the construction of the double array.
+     */
+    private final class Builder {
+
+        private final int alphabet_size;
+        private int[] base;
+        private int[] check;
+        private int[] first_edges;
+        private int[] edge_counts;
+        private char[] edge_labels;
+        private int[] min_suffix_lengths;
+        private int[] max_suffix_lengths;
+        private BitSet accept_states = new BitSet();
+        private int edge_total;
+        /**
+         * One past the highest slot in use.
+         */
+        private int size = 1;
+        /**
+         * Free slots form a doubly linked list, so that placing a state
+         * skips the occupied slots instead of scanning them.
+         */
+        private int[] next_free;
+        private int[] previous_free;
+        /**
+         * First free slot, or the end of the array if none is free.
+         */
+        private int first_free = 1;
+        private int last_free;
+
+        private Builder(int capacity, int alphabet_size) {
+            this.alphabet_size = alphabet_size;
+            base = new int[capacity];
+            check = new int[capacity];
+            Arrays.fill(check, FREE);
+            first_edges = new int[capacity];
+            edge_counts = new int[capacity];
+            edge_labels = new char[capacity];
+            min_suffix_lengths = new int[capacity];
+            max_suffix_lengths = new int[capacity];
+            next_free = new int[capacity];
+            previous_free = new int[capacity];
+            for (int i = 1; i < capacity; i++) {
+                next_free[i] = i + 1;
+                previous_free[i] = i - 1;
+            }
+            last_free = capacity - 1;
+        }
+
+        private void build(String[] words) {
+            // pending states as (slot, first word, end of words, depth)
+            int[] stack = new int[64];
+            int stack_size = 0;
+            int[] codes = new int[alphabet_size];
+            int[] ranges = new int[alphabet_size + 1];
+
+            check[0] = 0;
+            stack[stack_size++] = 0;
+            stack[stack_size++] = 0;
+            stack[stack_size++] = words.length;
+            stack[stack_size++] = 0;
+            while (stack_size > 0) {
+                int depth = stack[--stack_size];
+                int end = stack[--stack_size];
+                int start = stack[--stack_size];
+                int slot = stack[--stack_size];
+
+                int min_length = Integer.MAX_VALUE;
+                int max_length = -1;
+                for (int i = start; i < end; i++) {
+                    min_length = Math.min(min_length, words[i].length());
+                    max_length = Math.max(max_length, words[i].length());
+                }
+                min_suffix_lengths[slot] = (max_length < 0 ? Integer.MAX_VALUE : min_length - depth);
+                max_suffix_lengths[slot] = (max_length < 0 ? -1 : max_length - depth);
+                if ((start < end) && (words[start].length() == depth)) {
+                    // the shortest word of the range ends here
+                    accept_states.set(slot);
+                    start++;
+                }
+
+                // the words continue with ascending characters in runs
+                int child_count = 0;
+                for (int i = start; i < end; i++) {
+                    int c = char_codes[words[i].charAt(depth)];
+                    if ((child_count == 0) || (codes[child_count - 1] != c)) {
+                        codes[child_count] = c;
+                        ranges[child_count] = i;
+                        child_count++;
+                    }
+                }
+                ranges[child_count] = end;
+                if (child_count == 0) {
+                    continue;
+                }
+
+                int b = findBase(codes, child_count);
+                base[slot] = b;
+                first_edges[slot] = edge_total;
+                edge_counts[slot] = child_count;
+                if (edge_total + child_count > edge_labels.length) {
+                    edge_labels = Arrays.copyOf(edge_labels, (edge_total + child_count) * 2);
+                }
+                for (int i = 0; i < child_count; i++) {
+                    occupy(b + codes[i], slot);
+                    edge_labels[edge_total++] = words[ranges[i]].charAt(depth);
+                }
+                size = Math.max(size, b + codes[child_count - 1] + 1);
+
+                if (stack_size + 4 * child_count > stack.length) {
+                    stack = Arrays.copyOf(stack, (stack_size + 4 * child_count) * 2);
+                }
+                for (int i = child_count - 1; i >= 0; i--) {
+                    stack[stack_size++] = b + codes[i];
+                    stack[stack_size++] = ranges[i];
+                    stack[stack_size++] = ranges[i + 1];
+                    stack[stack_size++] = depth + 1;
+                }
+            }
+        }
+
+        /**
+         * Finds the lowest base at which all the given codes land on free
+         * slots.
+         * @param codes ascending codes of the edges to place
+         * @param count number of codes
+         * @return base for the edges
+         */
+        private int findBase(int[] codes, int count) {
+            int slot = first_free;
+            while (true) {
+                if (slot >= check.length) {
+                    ensureCapacity(slot + 1);
+                }
+                int b = slot - codes[0];
+                if (b > 0) {
+                    ensureCapacity(b + codes[count - 1] + 1);
+                    boolean fits = true;
+                    for (int i = 1; (i < count) && fits; i++) {
+                        fits = (check[b + codes[i]] == FREE);
+                    }
+                    if (fits) {
+                        return b;
+                    }
+                }
+                slot = next_free[slot];
+            }
+        }
+
+        /**
+         * Marks a slot as a state and removes it from the free list.
+         * @param slot free slot
+         * @param parent slot of the state the edge comes from
+         */
+        private void occupy(int slot, int parent) {
+            check[slot] = parent;
+            int previous = previous_free[slot];
+            int next = next_free[slot];
+            if (slot == first_free) {
+                first_free = next;
+            } else {
+                next_free[previous] = next;
+            }
+            if (slot == last_free) {
+                last_free = previous;
+            } else {
+                previous_free[next] = previous;
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= check.length) {
+                return;
+            }
+            int old_capacity = check.length;
+            int new_capacity = Math.max(capacity, old_capacity * 2);
+            base = Arrays.copyOf(base, new_capacity);
+            check = Arrays.copyOf(check, new_capacity);
+            Arrays.fill(check, old_capacity, new_capacity, FREE);
+            first_edges = Arrays.copyOf(first_edges, new_capacity);
+            edge_counts = Arrays.copyOf(edge_counts, new_capacity);
+            min_suffix_lengths = Arrays.copyOf(min_suffix_lengths, new_capacity);
+            max_suffix_lengths = Arrays.copyOf(max_suffix_lengths, new_capacity);
+            next_free = Arrays.copyOf(next_free, new_capacity);
+            previous_free = Arrays.copyOf(previous_free, new_capacity);
+            // append the new slots to the free list
+            for (int i = old_capacity; i < new_capacity; i++) {
+                next_free[i] = i + 1;
+                previous_free[i] = i - 1;
+            }
+            if (first_free >= old_capacity) {
+                first_free = old_capacity;
+            } else {
+                next_free[last_free] = old_capacity;
+                previous_free[old_capacity] = last_free;
+            }
+            last_free = new_capacity - 1;
+        }
+    }
+
+    /**
+     * Gets the number of words in the dictionary.
+     * @return number of words
+     */
+    public int getWordCount() {
+        return word_count;
+    }
+
+    /**
+     * Gets the number of slots of the double array, including the unused
+     * ones between states.
+     * @return length of the base and check arrays
+     */
+    public int getSlotCount() {
+        return check.length;
+    }
+
+    @Override
+    public int getRootState() {
+        return 0;
+    }
+
+    @Override
+    public boolean isAccept(int state) {
+        return accept_states.get(state);
+    }
+
+    @Override
+    public int getEdgeCount(int state) {
+        return edge_counts[state];
+    }
+
+    @Override
+    public char getEdgeLabel(int state, int edge) {
+        return edge_labels[first_edges[state] + edge];
+    }
+
+    @Override
+    public int getEdgeTarget(int state, int edge) {
+        return base[state] + char_codes[edge_labels[first_edges[state] + edge]];
+    }
+
+    @Override
+    public int getNextState(int state, char c) {
+        if (c >= char_codes.length) {
+            return NO_STATE;
+        }
+        int code = char_codes[c];
+        if (code == 0) {
+            return NO_STATE;
+        }
+        int next_state = base[state] + code;
+        return (((next_state < check.length) && (check[next_state] == state)) ? next_state : NO_STATE);
+    }
+
+    @Override
+    public int getMinSuffixLength(int state) {
+        return min_suffix_lengths[state];
+    }
+
+    @Override
+    public int getMaxSuffixLength(int state) {
+        return max_suffix_lengths[state];
+    }
+
+    @Override
+    public int getState(CharSequence prefix) {
+        int state = 0;
+        for (int i = 0; (i < prefix.length()) && (state != NO_STATE); i++) {
+            state = getNextState(state, prefix.charAt(i));
+        }
+        return state;
+    }
+
+    @Override
+    public boolean match(String word) {
+        int state = getState(word);
+        return (state != NO_STATE) && isAccept(state);
+    }
+}
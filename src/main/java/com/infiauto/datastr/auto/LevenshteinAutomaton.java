@@ -1,16 +1,42 @@
 package com.infiauto.datastr.auto;
 
+import com.infiauto.datastr.ErrorCorrectable;
 import com.infiauto.datastr.FixedLengthBitSet;
+import com.infiauto.datastr.MultiMap;
 import java.io.*;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Class for calculating a Levenshtein distance by using automata.
+ * Accepting states hold the exact distance of the words they accept.
  * @author Infinite Automata
  */
 public final class LevenshteinAutomaton
-        extends Automaton<FixedLengthBitSet, Boolean>
-        implements Serializable {
+        extends Automaton<FixedLengthBitSet, Integer>
+        implements ErrorCorrectable<String>, Serializable {
+
+    /**
+     * Pinned to the value computed for the original class, so that automata
+     * serialized before the compiled form existed can still be read and
+     * rebuilt by readObject.
+     */
+    private static final long serialVersionUID = -7878603607481758942L;
 
     public/*private */ static enum Parameter {
 
@@ -287,38 +313,6 @@ public final class LevenshteinAutomaton
         }
     }
 
-    private class Transition {
-
-        private PositionState from;
-        private FixedLengthBitSet b;
-        private PositionState to;
-
-        public Transition(PositionState from,
-                FixedLengthBitSet b,
-                PositionState to) {
-            this.from = from;
-            this.b = b;
-            this.to = to;
-        }
-
-        public PositionState getFrom() {
-            return from;
-        }
-
-        public FixedLengthBitSet getString() {
-            return b;
-        }
-
-        public PositionState getTo() {
-            return to;
-        }
-        
-        @Override
-        public String toString() {
-            return String.format("%s => %s => %s", from, b, to);
-        }
-    }
-
     public/*private */ enum ChiType {
 
         EPSILON, T, MS;
@@ -326,73 +320,83 @@ public final class LevenshteinAutomaton
     private static final char NONALPHABET_CHARACTER = '$';
     private static final PositionState START_STATE = new PositionState(Arrays.asList(new Position[]{new Position(Parameter.I, Type.USUAL, 0, 0)}));
     private static final ChiType DEFAULT_CHI = ChiType.EPSILON;
+    private static final int START_STATE_ID = 0;
+    private static final int DEAD_STATE_ID = -1;
+    private static final int UNKNOWN_STATE_ID = -2;
+    /**
+     * Traversal frames below a matching prefix carry PREFIX_STATE_ID minus
+     * the distance of that prefix instead of a state id.
+     */
+    private static final int PREFIX_STATE_ID = -3;
+    /**
+     * States a lazy automaton has no room for are identified by
+     * OVERFLOW_STATE_ID plus their index in the query that met them, above
+     * the ids of all interned states.
+     */
+    private static final int OVERFLOW_STATE_ID = 1 << 30;
+    /**
+     * Magic number and version of the binary file format, see write.
+     */
+    private static final int FILE_MAGIC = 0x494C4556;
+    private static final int FILE_VERSION = 1;
+    /**
+     * Largest supported edit distance.  Characteristic vectors are encoded
+     * in 2k+3 bits and used as int indices, so 2k+3 must stay below 31.
+     */
+    public static final int MAX_EDIT_DISTANCE = 13;
+    /**
+     * Shared automata handed out by forDistance, keyed by edit distance and
+     * chi.
+     */
+    private static final ConcurrentHashMap<Integer, FutureTask<LevenshteinAutomaton>> registry = new ConcurrentHashMap<Integer, FutureTask<LevenshteinAutomaton>>();
+    private static final AtomicLong registry_hits = new AtomicLong();
+    private static final AtomicLong registry_misses = new AtomicLong();
+    /**
+     * Dictionaries with fewer states than this are searched on the calling
+     * thread by recognizeParallel.
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 15;
+    /**
+     * A recognize task keeps splitting off subtrees while fewer than this
+     * many of its forked tasks wait to be stolen.
+     */
+    private static final int MAX_SURPLUS_TASKS = 3;
+    /**
+     * Deepest dictionary level whose subtrees are split off into tasks of
+     * their own; deeper subtrees are too small to be worth a task.
+     */
+    private static final int MAX_SPLIT_DEPTH = 4;
     private int edit_distance;
     private ChiType chi;
-
     /**
-     * Generate a power set of binary set of the specified length.
-     * @param len length of the longest binary set
-     * @return List of boolean arrays representing binary sets
+     * Compiled form of the automaton.  States are numbered from zero (the
+     * start state) and the transition for state s on the characteristic
+     * vector v lives at transition_table[s * vector_width + v].  The
+     * transitions are kept in this table only, the root state inherited from
+     * Automaton has none.
      */
-    private static ArrayList<FixedLengthBitSet> buildPowerSet(int len) {
-        int max = new Double(Math.pow(2.0, (double) len)).intValue();
-        ArrayList<FixedLengthBitSet> result = new ArrayList<FixedLengthBitSet>(max);
-        FixedLengthBitSet temp = new FixedLengthBitSet(len);
-
-        // add the all-zero bit set
-        result.add(temp);
-
-        // build the rest of the similar length bit sets
-        for (int i = 0; i < max - 1; i++) {
-            temp = new FixedLengthBitSet(len);
-            for (int j = 0; j < len; j++) {
-                temp.set(j, result.get(i).get(j));
-            }
-            int j = len - 1;
-            while (j >= 0) {
-                temp.flip(j);
-                if (!temp.get(j)) {
-                    j--;
-                } else {
-                    break;
-                }
-            }
-            result.add(temp);
-        }
-
-        // recursively call this method with successively shorter lengths
-        if (len > 1) {
-            result.addAll(buildPowerSet(len - 1));
-        }
-
-        return result;
-    }
-
-    private static Position functionRM(PositionState state) {
-        Position rm = null;
-        for (Position pi : state) {
-            if (pi.getType() == Type.USUAL) {
-                rm = pi;
-            }
-        }
-        for (Position pi : state) {
-            if ((pi.getType() == Type.USUAL) && ((pi.getIndex() - pi.getError()) > (rm.getIndex() - rm.getError()))) {
-                rm = pi;
-            }
-        }
-        return rm;
-    }
+    private int[] transition_table;
+    private BitSet accept_states;
+    private int[] accept_distances;
+    private int vector_width;
+    /**
+     * Lazily explored form of the automaton, used instead of the transition
+     * table when max_cached_states is positive.
+     */
+    private transient PositionStateSpace lazy_space;
+    private int max_cached_states;
+    /**
+     * Lower bounds on the distance of the words accepted from each state of
+     * the transition table, see minimumDistance.
+     */
+    private transient volatile int[] min_distances;
+    private DictionaryAutomaton dictionary_automaton;
 
-    private static PositionState functionM(int edit_distance, PositionState state, int string_length) {
-        PositionState m = new PositionState();
-        for (Position pi : state) {
-            if (pi.getParameter() == Parameter.I) {
-                m.add(new Position(Parameter.M, pi.getType(), pi.getIndex() + edit_distance + 1 - string_length, pi.getError()));
-            } else {
-                m.add(new Position(Parameter.I, pi.getType(), pi.getIndex() - edit_distance - 1 + string_length, pi.getError()));
-            }
+    private static Position functionM(int edit_distance, Position pi, int string_length) {
+        if (pi.getParameter() == Parameter.I) {
+            return new Position(Parameter.M, pi.getType(), pi.getIndex() + edit_distance + 1 - string_length, pi.getError());
         }
-        return m;
+        return new Position(Parameter.I, pi.getType(), pi.getIndex() - edit_distance - 1 + string_length, pi.getError());
     }
 
     private static boolean functionF(int edit_distance, Position pos, int string_length) {
@@ -405,6 +409,16 @@ public final class LevenshteinAutomaton
         return (pos.getError() > (pos.getIndex() + edit_distance));
     }
 
+    /**
+     * Get a bit of a relevant subword, counting from its first character.
+     * @param b relevant subword
+     * @param j one-based position of the character
+     * @return true if the character at position j matches
+     */
+    private static boolean bit(FixedLengthBitSet b, int j) {
+        return b.get(b.fixedLength() - j);
+    }
+
     private static SetOfPoints deltaED(ChiType chi,
             int edit_distance,
             Point point,
@@ -461,7 +475,8 @@ public final class LevenshteinAutomaton
             case T:
 
                 if (point.getType() == Type.T) {
-                    if (b.get(0)) {
+                    // second half of a transposition
+                    if ((b.fixedLength() > 0) && bit(b, 1)) {
                         return new SetOfPoints(Arrays.asList(new Point[]{new Point(Type.USUAL, index + 2, error)}));
                     }
                     return new SetOfPoints();
@@ -474,7 +489,7 @@ public final class LevenshteinAutomaton
                     return new SetOfPoints();
                 }
 
-                if (b.get(0)) {
+                if (bit(b, 1)) {
                     return new SetOfPoints(Arrays.asList(new Point[]{new Point(Type.USUAL, index + 1, error)}));
                 }
 
@@ -486,7 +501,7 @@ public final class LevenshteinAutomaton
                     return new SetOfPoints();
                 }
 
-                if (b.get(1)) {
+                if (bit(b, 2)) {
                     return new SetOfPoints(Arrays.asList(new Point[]{new Point(Type.USUAL, index, error + 1),
                                 new Point(Type.USUAL, index + 1, error + 1),
                                 new Point(Type.USUAL, index + 2, error + 1),
@@ -495,9 +510,9 @@ public final class LevenshteinAutomaton
 
                 // find the first true bit in the binary string
                 first_one = 0;
-                for (int i = 1; i < b.fixedLength(); i++) {
-                    if (b.get(i)) {
-                        first_one = i;
+                for (int j = 3; j <= b.fixedLength(); j++) {
+                    if (bit(b, j)) {
+                        first_one = j;
                         break;
                     }
                 }
@@ -514,6 +529,7 @@ public final class LevenshteinAutomaton
             case MS:
 
                 if (point.getType() == Type.MS) {
+                    // second half of a split
                     return new SetOfPoints(Arrays.asList(new Point[]{new Point(Type.USUAL, index + 1, error)}));
                 }
 
@@ -524,12 +540,17 @@ public final class LevenshteinAutomaton
                     return new SetOfPoints();
                 }
 
+                if (bit(b, 1)) {
+                    return new SetOfPoints(Arrays.asList(new Point[]{new Point(Type.USUAL, index + 1, error)}));
+                }
+
                 if (b.fixedLength() == 1) {
                     if (error < edit_distance) {
                         return new SetOfPoints(Arrays.asList(new Point[]{new Point(Type.USUAL, index, error + 1),
                                     new Point(Type.USUAL, index + 1, error + 1),
                                     new Point(Type.MS, index, error + 1)}));
                     }
+                    return new SetOfPoints();
                 }
 
                 return new SetOfPoints(Arrays.asList(new Point[]{new Point(Type.USUAL, index, error + 1),
@@ -597,46 +618,6 @@ public final class LevenshteinAutomaton
         return state;
     }
 
-    private static PositionState delta(ChiType chi, int edit_distance, PositionState state, FixedLengthBitSet b) {
-        PositionState next_state = new PositionState();
-        boolean add = false;
-
-        for (Position q : state) {
-            PositionState delta_e = deltaE(chi, edit_distance, q, b);
-
-            if (!delta_e.isEmpty()) {
-                for (Position pi : delta_e) {
-                    // initialize the add flag to true
-                    add = true;
-
-                    Iterator<Position> iter = next_state.iterator();
-                    while (iter.hasNext()) {
-                        Position p = iter.next();
-
-                        if (lessThanSubsume(pi, p)) {
-                            iter.remove();
-                        } else {
-                            if (p.equals(pi) || lessThanSubsume(p, pi)) {
-                                add = false;
-                                break;
-                            }
-                        }
-                    }
-
-                    if (add == true) {
-                        next_state.add(pi);
-                    }
-                }
-            }
-        }
-
-        if (functionF(edit_distance, functionRM(next_state), b.fixedLength())) {
-            next_state = functionM(edit_distance, next_state, b.fixedLength());
-        }
-
-        return next_state;
-    }
-
     private static boolean lessThanSubsume(Position q1, Position q2) {
         if ((q1.getType() != Type.USUAL) || (q2.getError() <= q1.getError())) {
             return false;
@@ -687,243 +668,2571 @@ public final class LevenshteinAutomaton
         return true;
     }
 
+    /**
+     * Calculates the distance of the words accepted by a final state, which
+     * is the smallest number of errors of any of its positions once the
+     * characters left over at the end of the input are counted as deletions.
+     * @param state final state in M-form
+     * @return distance of the words accepted by the state
+     */
+    private static int functionDistance(PositionState state) {
+        int distance = Integer.MAX_VALUE;
+        for (Position pi : state) {
+            if ((pi.getType() == Type.USUAL) && ((pi.getError() - pi.getIndex()) < distance)) {
+                distance = pi.getError() - pi.getIndex();
+            }
+        }
+        return distance;
+    }
+
     /**
      * Constructs a LevenshteinAutomaton.
      * @param edit_distance maximum number of edits detected by this automaton
      */
     public LevenshteinAutomaton(int edit_distance) {
+        this(edit_distance, DEFAULT_CHI);
+    }
+
+    /**
+     * Constructs a LevenshteinAutomaton for a variant of the Levenshtein
+     * distance.  With ChiType.T swapping two adjacent characters counts as a
+     * single edit, and with ChiType.MS merging two characters into one or
+     * splitting one character into two does.
+     * @param edit_distance maximum number of edits detected by this automaton
+     * @param chi variant of the distance
+     * @throws IllegalArgumentException if edit_distance is negative or above
+     * MAX_EDIT_DISTANCE
+     */
+    public LevenshteinAutomaton(int edit_distance, ChiType chi) {
         super();
 
-        this.chi = DEFAULT_CHI;
+        checkEditDistance(edit_distance);
+        this.chi = chi;
         this.edit_distance = edit_distance;
-        this.root_node = new State<FixedLengthBitSet>(null, "{I#0}");
-        List<Transition> transitions = new LinkedList<Transition>();
-        HashMap<PositionState, State<FixedLengthBitSet>> state_mappings = new HashMap<PositionState, State<FixedLengthBitSet>>();
-
-        Queue<PositionState> queue = new LinkedList<PositionState>();
-        LinkedList<PositionState> added_states = new LinkedList<PositionState>();
-        ArrayList<FixedLengthBitSet> power_set = buildPowerSet(2 * edit_distance + 2);
-
-        added_states.add(START_STATE);
-        state_mappings.put(START_STATE, getCurrentState());
-        TreeSet<Integer> temp_set = new TreeSet<Integer>();
-        temp_set.add(new Integer(0));
-
-        HashSet<State<FixedLengthBitSet>> finished_state_list = new HashSet<State<FixedLengthBitSet>>();
-
-        // build the universal Levenshtein automaton
-        queue.add(START_STATE);
-        while (!queue.isEmpty()) {
-            PositionState state = queue.remove();
-
-            for (FixedLengthBitSet b : power_set) {
-                if (coversAllPositions(edit_distance, b.fixedLength(), state)) {
-                    // generate the next state
-                    PositionState next_state = delta(chi, edit_distance, state, b);
-
-                    if (!next_state.isEmpty()) {
-                        int index = added_states.indexOf(next_state);
-                        if (index == -1) {
-                            // state hasn't been added before now
-                            queue.add(next_state);
-                            added_states.add(next_state);
-
-                            State<FixedLengthBitSet> s = new State<FixedLengthBitSet>(next_state.first().getParameter() == Parameter.M ? Boolean.TRUE : null, next_state.toString());
-                            state_mappings.put(next_state, s);
-                        } else {
-                            next_state = added_states.get(index);
-                        }
+        build();
+    }
 
-                        transitions.add(new Transition(state, b, next_state));
+    /**
+     * Constructs a LevenshteinAutomaton that shares the states of an existing
+     * automaton and corrects errors against the given dictionary.
+     * @param automaton automaton whose states are shared
+     * @param dictionary_automaton dictionary searched by correctError
+     */
+    public LevenshteinAutomaton(LevenshteinAutomaton automaton, DictionaryAutomaton dictionary_automaton) {
+        super();
 
-                        State<FixedLengthBitSet> first_state = state_mappings.get(state);
-                        State<FixedLengthBitSet> second_state = state_mappings.get(next_state);
-                        if ((first_state != null) && (second_state != null)) {
-                            finished_state_list.add(first_state);
-                            finished_state_list.add(second_state);
-                            first_state.addNextState(b, second_state);
-                        }
-                    }
-                }
-            }
-        }
+        this.chi = automaton.chi;
+        this.edit_distance = automaton.edit_distance;
+        this.root_node = automaton.root_node;
+        this.transition_table = automaton.transition_table;
+        this.accept_states = automaton.accept_states;
+        this.accept_distances = automaton.accept_distances;
+        this.vector_width = automaton.vector_width;
+        this.lazy_space = automaton.lazy_space;
+        this.max_cached_states = automaton.max_cached_states;
+        this.dictionary_automaton = dictionary_automaton;
     }
 
     /**
-     * Creates a characteristic vector of a character against a string.
-     * @param c Character from which the characteristic vector is created
-     * @param padded_string String from which the characteristic vector is created
-     * @param edit_distance Distance greater than or equal to one of the
-     * desired LevenshteinAutomaton
-     * @return FixedLengthBitSet representing the characteristic bit vector
+     * Constructs a LevenshteinAutomaton that is explored lazily.  Starting
+     * from the start state, transitions are only computed when recognition
+     * first needs them, and the explored states and computed transitions
+     * are cached up to max_cached_states entries.  Past that bound cached
+     * transitions are dropped and recomputed when needed again, and states
+     * met once the cache is full are only kept by the query that met them.
+     * This makes large edit distances usable, as a query only touches a
+     * small part of the universal automaton.
+     * @param edit_distance maximum number of edits detected by this automaton
+     * @param chi variant of the distance
+     * @param max_cached_states number of entries, explored states and
+     * computed transitions alike, the cache may hold
+     * @throws IllegalArgumentException if edit_distance is negative or above
+     * MAX_EDIT_DISTANCE, or max_cached_states is not positive
      */
-    private static FixedLengthBitSet buildCharacteristicVector(char c, String s, int edit_distance) {
-        int len = 2 * edit_distance + 2;
-        if (s.length() < len) {
-            len = s.length();
-        }
-        FixedLengthBitSet result = new FixedLengthBitSet(len);
-        int first_bit = len - 1;
-        for (int i = 0; i < len; i++) {
-            result.set((first_bit - i), (c == s.charAt(i)));
+    public LevenshteinAutomaton(int edit_distance, ChiType chi, int max_cached_states) {
+        super();
+
+        checkEditDistance(edit_distance);
+        if (max_cached_states < 1) {
+            throw new IllegalArgumentException("max_cached_states must be positive");
         }
-        return result;
+        this.chi = chi;
+        this.edit_distance = edit_distance;
+        this.max_cached_states = max_cached_states;
+        this.root_node = new State<FixedLengthBitSet>(null, START_STATE.toString());
+        this.vector_width = 1 << (2 * edit_distance + 3);
+        this.lazy_space = new PositionStateSpace(edit_distance, chi, false, max_cached_states);
     }
 
-    private class RecognizeMapping {
-
-        public String working_string;
-        public DictionaryAutomaton.State dictionary_state;
-        public LevenshteinAutomaton.State levenshtein_state;
-        public int index;
-
-        public RecognizeMapping(String working_string,
-                DictionaryAutomaton.State dictionary_state,
-                LevenshteinAutomaton.State levenshtein_state,
-                int index) {
-            this.working_string = working_string;
-            this.dictionary_state = dictionary_state;
-            this.levenshtein_state = levenshtein_state;
-            this.index = index;
+    /**
+     * Checks that an edit distance can be handled by this class.
+     * @param edit_distance edit distance to check
+     * @throws IllegalArgumentException if the distance is negative or above
+     * MAX_EDIT_DISTANCE
+     */
+    private static void checkEditDistance(int edit_distance) {
+        if ((edit_distance < 0) || (edit_distance > MAX_EDIT_DISTANCE)) {
+            throw new IllegalArgumentException("edit_distance must be between 0 and " + MAX_EDIT_DISTANCE);
         }
     }
 
     /**
-     * Simultaneously traverses a DictionaryAutomaton and the provided
-     * LevenshteinAutomaton to find all words within the specified Levenshtein
-     * distance.
-     * @param input_string used to search for other string within an edit distance
-     * @param dictionary_automaton automaton representing all the words to search
-     * @return Collection containing all the words within the edit distance
-     * matching the input word
+     * State space of a universal Levenshtein automaton, explored one
+     * transition at a time.  Positions are interned as ints and position
+     * states as sorted int arrays of position ids, so that states are
+     * deduplicated by hashing.  The elementary transitions of each position
+     * are memoized per characteristic vector, and characteristic vectors are
+     * handled in their encoded int form throughout.  Several threads may
+     * compute transitions at once: the memos are concurrent maps, and only
+     * appending a new position or state takes the lock of the space.
+     * <p>
+     * A lazily explored space is bounded by a number of entries, counting
+     * its states, the transitions cached in them and its memoized
+     * elementary transitions.  States are never dropped, as running queries
+     * hold their ids, but at most half of the entries are states; states met
+     * beyond that are kept by the query that met them, see QueryVectors.
+     * Whenever a new entry brings the space over its bound, the cached
+     * transitions of states are dropped in turn until a quarter of the
+     * entries are free again, and the elementary memo is dropped as well if
+     * that does not suffice.  Positions are not counted, as there are only
+     * O(k^2) of them.
      */
-    public Collection<String> recognize(String input_string, DictionaryAutomaton dictionary_automaton) {
-        TreeSet<String> result = new TreeSet<String>();
-        
-        // prepend character(padded_string) not belonging to the dictionary's alphabet
-        StringBuilder sb = new StringBuilder(input_string.length() + edit_distance);
-        for(int i = 0; i < edit_distance; i++) {
-            sb.append(NONALPHABET_CHARACTER);
-        }
-        sb.append(input_string);
-        String padded_string = sb.toString();
-
-        Stack<RecognizeMapping> mapping_stack = new Stack<RecognizeMapping>();
-        mapping_stack.push(new RecognizeMapping("", dictionary_automaton.getCurrentState(), this.getCurrentState(), 0));
-
-        while (!mapping_stack.isEmpty()) {
-            RecognizeMapping current_mapping = mapping_stack.pop();
-            String substring = padded_string.substring(current_mapping.index);
-                
-            for (Character c : dictionary_automaton.getAlphabet()) {
-                DictionaryAutomaton.State dictionary_next = current_mapping.dictionary_state.getNextState(c);
-                FixedLengthBitSet characteristic_vector = buildCharacteristicVector(c.charValue(), substring, edit_distance);
-                LevenshteinAutomaton.State levenshtein_next = current_mapping.levenshtein_state.getNextState(characteristic_vector);
-
-                // check to ensure that next automata states exist
-                if ((dictionary_next == null) || (levenshtein_next == null)) {
-                    continue;
+    private static final class PositionStateSpace {
+
+        private final ChiType chi;
+        private final int edit_distance;
+        private final int max_entries;
+        private final int max_states;
+        /**
+         * Interned positions, indexed by id.  The array is appended to under
+         * the lock of the space and replaced by a larger copy when full, so
+         * that any thread holding an id can read it without locking.
+         */
+        private volatile Position[] positions = new Position[16];
+        private int position_count;
+        private final ConcurrentHashMap<Position, Integer> position_ids = new ConcurrentHashMap<Position, Integer>();
+        /**
+         * Memoized elementary transitions, keyed by position id in the high
+         * half and encoded characteristic vector in the low half.  Only the
+         * vectors actually met are entered.
+         */
+        private final ConcurrentHashMap<Long, int[]> elementary_transitions = new ConcurrentHashMap<Long, int[]>();
+        /**
+         * Memoized elementary transitions indexed by position id and then
+         * by encoded characteristic vector, used instead of the sparse memo
+         * by a space built in full on one thread, as it meets every vector.
+         * Null for lazily explored spaces.
+         */
+        private final ArrayList<int[][]> dense_transitions;
+        /**
+         * Interned states, indexed by id and appended to like positions.
+         */
+        private volatile SpaceState[] states = new SpaceState[16];
+        private volatile int state_count;
+        private final ConcurrentHashMap<StateKey, Integer> state_ids = new ConcurrentHashMap<StateKey, Integer>();
+        /**
+         * Number of transitions cached in the states.
+         */
+        private final AtomicInteger transition_count = new AtomicInteger();
+        /**
+         * Next state whose cached transitions are dropped, see reclaim.
+         */
+        private int reclaim_hand;
+
+        /**
+         * Creates a space holding the start state only.
+         * @param edit_distance edit distance of the automaton
+         * @param chi variant of the distance
+         * @param dense whether the space is built in full on one thread
+         * @param max_entries number of entries the space may hold
+         */
+        private PositionStateSpace(int edit_distance, ChiType chi, boolean dense, int max_entries) {
+            this.chi = chi;
+            this.edit_distance = edit_distance;
+            this.dense_transitions = (dense ? new ArrayList<int[][]>() : null);
+            this.max_entries = max_entries;
+            this.max_states = Math.max(1, max_entries / 2);
+            intern(START_STATE);
+        }
+
+        private int getStateCount() {
+            return state_count;
+        }
+
+        private SpaceState getState(int state) {
+            return states[state];
+        }
+
+        /**
+         * Get the number of entries the space holds, see PositionStateSpace.
+         * @return number of states, cached transitions and memoized
+         * elementary transitions
+         */
+        private int getEntryCount() {
+            return state_count + transition_count.get() + elementary_transitions.size();
+        }
+
+        private int positionId(Position p) {
+            Integer id = position_ids.get(p);
+            if (id != null) {
+                return id;
+            }
+
+            synchronized (this) {
+                id = position_ids.get(p);
+                if (id == null) {
+                    id = position_count;
+                    Position[] table = positions;
+                    if (id == table.length) {
+                        table = Arrays.copyOf(table, id * 2);
+                    }
+                    table[id] = p;
+                    positions = table;
+                    position_count = id + 1;
+                    position_ids.put(p, id);
+                    if (dense_transitions != null) {
+                        dense_transitions.add(new int[1 << (2 * edit_distance + 3)][]);
+                    }
+                }
+            }
+            return id;
+        }
+
+        private int intern(PositionState state) {
+            int[] ids = new int[state.size()];
+            int i = 0;
+            for (Position p : state) {
+                ids[i++] = positionId(p);
+            }
+            Arrays.sort(ids);
+            return intern(ids);
+        }
+
+        /**
+         * Get the id of a state, interning it if it is new and the space
+         * has room for it.
+         * @param ids sorted ids of the positions of the state
+         * @return id of the state, or UNKNOWN_STATE_ID if the state is new
+         * and the space holds as many states as it may
+         */
+        private int intern(int[] ids) {
+            StateKey key = new StateKey(ids);
+            Integer id = state_ids.get(key);
+            if (id != null) {
+                return id;
+            }
+            if (state_count >= max_states) {
+                return UNKNOWN_STATE_ID;
+            }
+
+            // described outside the lock, the description is dropped if
+            // another thread interns the same state first
+            SpaceState state = describe(ids);
+            synchronized (this) {
+                id = state_ids.get(key);
+                if (id == null) {
+                    if (state_count >= max_states) {
+                        return UNKNOWN_STATE_ID;
+                    }
+                    id = state_count;
+                    SpaceState[] table = states;
+                    if (id == table.length) {
+                        table = Arrays.copyOf(table, id * 2);
+                    }
+                    table[id] = state;
+                    states = table;
+                    state_count = id + 1;
+                    state_ids.put(key, id);
                 }
+            }
+            return id;
+        }
 
-                boolean da = dictionary_next.isAccept();
-                boolean la = levenshtein_next.isAccept();
-                if (da && la) {
-                    // accept state for both automata, add the working string to the results
-                    result.add(current_mapping.working_string + c);
+        private SpaceState describe(int[] ids) {
+            Position[] table = positions;
+            PositionState state = new PositionState();
+            for (int p : ids) {
+                state.add(table[p]);
+            }
+            int covered = 0;
+            for (int len = 0; len <= 2 * edit_distance + 2; len++) {
+                if (coversAllPositions(edit_distance, len, state)) {
+                    covered |= 1 << len;
                 }
-                
-                // continue to work on this string
-                mapping_stack.push(new RecognizeMapping(current_mapping.working_string + c, dictionary_next, levenshtein_next, current_mapping.index + 1));
             }
+            int distance = (state.first().getParameter() == Parameter.M ? functionDistance(state) : DEAD_STATE_ID);
+            int min_error = Integer.MAX_VALUE;
+            for (Position p : state) {
+                min_error = Math.min(min_error, p.getError());
+            }
+            return new SpaceState(ids, covered, distance, min_error);
         }
 
-        return result;
+        private int[] elementaryTransition(int position, int vector) {
+            if (dense_transitions != null) {
+                int[][] memo = dense_transitions.get(position);
+                if (memo[vector] == null) {
+                    memo[vector] = computeElementaryTransition(position, vector);
+                }
+                return memo[vector];
+            }
+
+            Long key = ((long) position << 32) | vector;
+            int[] result = elementary_transitions.get(key);
+            if (result == null) {
+                result = computeElementaryTransition(position, vector);
+                // concurrent callers store equal arrays
+                elementary_transitions.put(key, result);
+                if (getEntryCount() > max_entries) {
+                    reclaim();
+                }
+            }
+            return result;
+        }
+
+        private int[] computeElementaryTransition(int position, int vector) {
+            int len = 31 - Integer.numberOfLeadingZeros(vector);
+            FixedLengthBitSet b = new FixedLengthBitSet(len);
+            for (int j = 0; j < len; j++) {
+                b.set(j, (vector & (1 << j)) != 0);
+            }
+            PositionState delta_e = deltaE(chi, edit_distance, positions[position], b);
+            int[] result = new int[delta_e.size()];
+            int i = 0;
+            for (Position pi : delta_e) {
+                result[i++] = positionId(pi);
+            }
+            return result;
+        }
+
+        /**
+         * Computes the transition of a state on a characteristic vector.  This
+         * is the int counterpart of the transition function delta.
+         * @param current the state
+         * @param vector encoded characteristic vector
+         * @return sorted ids of the positions of the next state, or null if
+         * there is none
+         */
+        private int[] delta(SpaceState current, int vector) {
+            int len = 31 - Integer.numberOfLeadingZeros(vector);
+            if ((current.covered_lengths & (1 << len)) == 0) {
+                return null;
+            }
+
+            int[] scratch = new int[16];
+            int count = 0;
+            for (int q : current.positions) {
+                for (int pi : elementaryTransition(q, vector)) {
+                    Position[] table = positions;
+                    Position position = table[pi];
+                    boolean add = true;
+                    int kept = 0;
+                    for (int i = 0; i < count; i++) {
+                        int p = scratch[i];
+                        if (add && lessThanSubsume(position, table[p])) {
+                            // p is subsumed by the new position, drop it
+                            continue;
+                        }
+                        if (add && ((p == pi) || lessThanSubsume(table[p], position))) {
+                            add = false;
+                        }
+                        scratch[kept++] = p;
+                    }
+                    count = kept;
+                    if (add) {
+                        if (count == scratch.length) {
+                            scratch = Arrays.copyOf(scratch, count * 2);
+                        }
+                        scratch[count++] = pi;
+                    }
+                }
+            }
+
+            if (count == 0) {
+                return null;
+            }
+
+            // the rightmost usual position, with ties broken arbitrarily as
+            // functionF depends on the index less the error only
+            Position[] table = positions;
+            Position rm = null;
+            for (int i = 0; i < count; i++) {
+                Position pi = table[scratch[i]];
+                if ((pi.getType() == Type.USUAL) && ((rm == null) || ((pi.getIndex() - pi.getError()) > (rm.getIndex() - rm.getError())))) {
+                    rm = pi;
+                }
+            }
+            if (functionF(edit_distance, rm, len)) {
+                for (int i = 0; i < count; i++) {
+                    scratch[i] = positionId(functionM(edit_distance, table[scratch[i]], len));
+                }
+            }
+
+            int[] ids = Arrays.copyOf(scratch, count);
+            Arrays.sort(ids);
+            return ids;
+        }
+
+        /**
+         * Computes a transition a lazy automaton has not cached and caches
+         * it if both states are interned.  A next state the space has no
+         * room for is handed to the query instead.
+         * @param vectors query computing the transition
+         * @param state id of the state
+         * @param current the state
+         * @param vector encoded characteristic vector
+         * @return id of the next state, or DEAD_STATE_ID if there is none
+         */
+        private int transition(QueryVectors vectors, int state, SpaceState current, int vector) {
+            int[] ids = delta(current, vector);
+            int next_state = DEAD_STATE_ID;
+            if (ids != null) {
+                next_state = intern(ids);
+                if (next_state == UNKNOWN_STATE_ID) {
+                    return vectors.addOverflowState(describe(ids));
+                }
+            }
+            if ((state < OVERFLOW_STATE_ID) && current.putTransition(vector, next_state)) {
+                transition_count.incrementAndGet();
+                if (getEntryCount() > max_entries) {
+                    reclaim();
+                }
+            }
+            return next_state;
+        }
+
+        /**
+         * Drops cached transitions, state by state round robin, until a
+         * quarter of the entries of the space are free, and drops the
+         * elementary memo as well if the transitions do not suffice.
+         */
+        private synchronized void reclaim() {
+            int target = max_entries - max_entries / 4;
+            int excess = getEntryCount() - target;
+            int count = state_count;
+            SpaceState[] table = states;
+            for (int scanned = 0; (scanned < count) && (excess > 0); scanned++) {
+                if (reclaim_hand >= count) {
+                    reclaim_hand = 0;
+                }
+                int dropped = table[reclaim_hand++].clearTransitions();
+                transition_count.addAndGet(-dropped);
+                excess -= dropped;
+            }
+            if (excess > 0) {
+                elementary_transitions.clear();
+            }
+        }
     }
 
     /**
-     * Generate a new LevenshteinAutomaton instance from scratch.
-     * @param edit_distance Distance greater than or equal to one of the
-     * desired LevenshteinAutomaton
-     * @return New LevenshteinAutomaton instance of the given edit distance
+     * State of a PositionStateSpace, with what recognition needs to know of
+     * it.  The transitions of a lazily explored automaton are kept here as
+     * well, but only for the characteristic vectors queries have met, which
+     * are few compared to the 2^(2k+3) a row of the transition table holds.
      */
-    public static LevenshteinAutomaton generateLevenshtein(int edit_distance) {
-        LevenshteinAutomaton levenshtein = new LevenshteinAutomaton(edit_distance);
-        ObjectOutputStream oos = null;
-        try {
-            oos = new ObjectOutputStream(new FileOutputStream(getLevenshteinFileName(edit_distance)));
-            try {
-                oos.writeObject(levenshtein);
-            } finally {
-                oos.close();
+    private static final class SpaceState {
+
+        private static final long[] NO_TRANSITIONS = new long[2];
+        /**
+         * Sorted ids of the positions of the state.
+         */
+        private final int[] positions;
+        /**
+         * Bit len is set if the state has transitions on characteristic
+         * vectors of length len.
+         */
+        private final int covered_lengths;
+        /**
+         * Distance of an accepting state, DEAD_STATE_ID otherwise.
+         */
+        private final int distance;
+        private final int min_error;
+        /**
+         * Open-addressed table of the transitions computed so far.  An entry
+         * holds the vector in its high half and the next state in its low
+         * half, and zero marks a free slot as no vector is zero.  The table
+         * is replaced by an updated copy on every change, so that lookups
+         * need no lock.
+         */
+        private volatile long[] transitions = NO_TRANSITIONS;
+        private int transition_count;
+
+        private SpaceState(int[] positions, int covered_lengths, int distance, int min_error) {
+            this.positions = positions;
+            this.covered_lengths = covered_lengths;
+            this.distance = distance;
+            this.min_error = min_error;
+        }
+
+        private static int slot(int vector, int mask) {
+            int h = vector * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        /**
+         * Get a transition computed before.
+         * @param vector encoded characteristic vector
+         * @return id of the next state, DEAD_STATE_ID if there is none, or
+         * UNKNOWN_STATE_ID if the transition has not been computed yet
+         */
+        private int getTransition(int vector) {
+            long[] table = transitions;
+            int mask = table.length - 1;
+            int slot = slot(vector, mask);
+            long entry;
+            while ((entry = table[slot]) != 0L) {
+                if ((int) (entry >>> 32) == vector) {
+                    return (int) entry;
+                }
+                slot = (slot + 1) & mask;
             }
-        } catch (IOException io_excep) {
-            io_excep.printStackTrace();
+            return UNKNOWN_STATE_ID;
+        }
+
+        /**
+         * Caches a transition.
+         * @param vector encoded characteristic vector
+         * @param next_state id of the next state
+         * @return false if the transition was cached already
+         */
+        private synchronized boolean putTransition(int vector, int next_state) {
+            if (getTransition(vector) != UNKNOWN_STATE_ID) {
+                return false;
+            }
+            long[] table = transitions;
+            int capacity = table.length;
+            while (2 * (transition_count + 1) > capacity) {
+                capacity *= 2;
+            }
+            long[] copy = new long[capacity];
+            for (long entry : table) {
+                if (entry != 0L) {
+                    insert(copy, entry);
+                }
+            }
+            insert(copy, ((long) vector << 32) | (next_state & 0xFFFFFFFFL));
+            transition_count++;
+            transitions = copy;
+            return true;
+        }
+
+        /**
+         * Drops the cached transitions.
+         * @return number of transitions dropped
+         */
+        private synchronized int clearTransitions() {
+            int dropped = transition_count;
+            transition_count = 0;
+            transitions = NO_TRANSITIONS;
+            return dropped;
+        }
+
+        private static void insert(long[] table, long entry) {
+            int mask = table.length - 1;
+            int slot = slot((int) (entry >>> 32), mask);
+            while (table[slot] != 0L) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = entry;
         }
-        return levenshtein;
     }
 
     /**
-     * Builds a formatted file name based on the edit distance.
-     * @param edit_distance Edit distance of desired file name
-     * @return A valid file name for a LevenshteinAutomaton instance
+     * Hash key of a position state given as a sorted array of position ids.
      */
-    private static String getLevenshteinFileName(int edit_distance) {
-        return String.format("dist%03d.lev", edit_distance);
+    private static final class StateKey {
+
+        private final int[] ids;
+        private final int hash_code;
+
+        private StateKey(int[] ids) {
+            this.ids = ids;
+            this.hash_code = Arrays.hashCode(ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash_code;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof StateKey) && Arrays.equals(ids, ((StateKey) obj).ids);
+        }
     }
 
     /**
-     * Load an existing serialized instance of LevenshteinAutomaton.
-     * Will search the JAR file first, and then check on the local disk.
-     * @param edit_distance Distance greater than or equal to one of the
-     * desired LevenshteinAutomaton
-     * @return LevenshteinAutomaton instance if one exists, null otherwise
+     * Builds the universal Levenshtein automaton for the edit distance and
+     * chi of this instance, directly in its compiled form.
      */
-    public static LevenshteinAutomaton loadLevenshteinAutomaton(int edit_distance) {
-        String file_name = getLevenshteinFileName(edit_distance);
-        InputStream in_stream = null;
-        LevenshteinAutomaton automaton = null;
-
-        // first, try to load the LevenshteinAutomaton from the JAR file
-        in_stream = LevenshteinAutomaton.class.getClassLoader().getResourceAsStream(file_name);
-        if (in_stream == null) {
-            System.err.println("Couldn't find /" + file_name + " in the JAR file");
-            // second, look for the LevenshteinAutomaton on the disk
-            try {
-                in_stream = new FileInputStream(file_name);
-            } catch (FileNotFoundException fnf_excep) {
-                System.err.println("Couldn't find " + file_name + " on disk");
-                return null;
+    private void build() {
+        this.root_node = new State<FixedLengthBitSet>(null, START_STATE.toString());
+        this.vector_width = 1 << (2 * edit_distance + 3);
+        PositionStateSpace space = new PositionStateSpace(edit_distance, chi, true, Integer.MAX_VALUE);
+
+        // breadth-first exploration, the start state has id zero
+        int[] table = new int[16 * vector_width];
+        for (int state = 0; state < space.getStateCount(); state++) {
+            if ((state + 1) * vector_width > table.length) {
+                table = Arrays.copyOf(table, table.length * 2);
+            }
+            int row = state * vector_width;
+            table[row] = DEAD_STATE_ID;
+            for (int vector = 1; vector < vector_width; vector++) {
+                int[] ids = space.delta(space.getState(state), vector);
+                table[row + vector] = (ids == null ? DEAD_STATE_ID : space.intern(ids));
             }
         }
 
-        try {
-            ObjectInputStream ois = new ObjectInputStream(in_stream);
-            try {
-                automaton = (LevenshteinAutomaton) ois.readObject();
-            } catch (ClassNotFoundException cnf_excep) {
-                cnf_excep.printStackTrace();
-            } finally {
-                ois.close();
+        int state_count = space.getStateCount();
+        this.transition_table = Arrays.copyOf(table, state_count * vector_width);
+        this.accept_states = new BitSet(state_count);
+        this.accept_distances = new int[state_count];
+        for (int state = 0; state < state_count; state++) {
+            int distance = space.getState(state).distance;
+            if (distance >= 0) {
+                accept_states.set(state);
+                accept_distances[state] = distance;
             }
-        } catch (IOException io_excep) {
-            io_excep.printStackTrace();
         }
-
-        return automaton;
     }
 
     /**
-     * Describe the command line usage of the LevenshteinAutomaton class.
+     * Rebuilds automata serialized before the compiled form existed, as
+     * their accepting states do not record distances.  Lazy automata start
+     * over with an empty cache.
      */
-    private static void usage() {
-        System.out.println("LevenshteinAutomaton (-g distance) | (-l distance -d dictionary_file (word)+)");
-        System.out.println("\t-g generates a new Levenshtein automaton");
-        System.out.println("\t-l matches based on an existing Levenshtein automaton");
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (max_cached_states > 0) {
+            lazy_space = new PositionStateSpace(edit_distance, chi, false, max_cached_states);
+        } else if (transition_table == null) {
+            build();
+        }
     }
 
     /**
-     * Command-line interface for generating instances of Levenshtein automata
-     * and using them in conjunction with dictionary automata to find matching
+     * Get the number of states in the compiled automaton, or the number of
+     * states explored so far by a lazy automaton.
+     * @return number of states in the automaton
+     */
+    @Override
+    public int getStateCount() {
+        if (lazy_space != null) {
+            return lazy_space.getStateCount();
+        }
+        return transition_table.length / vector_width;
+    }
+
+    /**
+     * Get the number of entries held by the cache of a lazy automaton, see
+     * LevenshteinAutomaton(int, ChiType, int).
+     * @return number of cached states and transitions, zero for a compiled
+     * automaton
+     */
+    int getCacheSize() {
+        return (lazy_space != null ? lazy_space.getEntryCount() : 0);
+    }
+
+    /**
+     * Padded query string together with the characteristic vectors of the
+     * characters that occur in it.
+     */
+    private static class QueryVectors {
+
+        /**
+         * Longest padded query whose characteristic vectors are precomputed
+         * into a single long per character.
+         */
+        private static final int MAX_PACKED_LENGTH = 64;
+        private char[] padded_string = new char[32];
+        private int padded_length;
+        private int edit_distance;
+        private int window_length;
+        /**
+         * Open-addressed table from each distinct query character to its
+         * packed vector.  Bit (padded_length - 1 - i) of a packed vector is
+         * set when the character occurs at index i of the padded string.
+         */
+        private int[] vector_keys = new int[16];
+        private long[] vector_bits = new long[16];
+        private int vector_mask;
+        /**
+         * States a lazy automaton explores for the query, null for compiled
+         * automata.
+         */
+        PositionStateSpace space;
+        /**
+         * States met by the query that its space had no room for, addressed
+         * as OVERFLOW_STATE_ID plus their index.  They are kept as a stack:
+         * every traversal frame records overflow_count when it is pushed and
+         * restores it when it is popped, and expanding a frame of an
+         * overflow state truncates the stack to that state, as the states
+         * above it belong to frames already left.  The stack is thus never
+         * deeper than the traversal stack.
+         */
+        SpaceState[] overflow_states = new SpaceState[16];
+        int overflow_count;
+
+        /**
+         * Prepare the vectors for a new query.
+         * @param input_string query string
+         * @param edit_distance number of padding characters to prepend
+         */
+        void reset(String input_string, int edit_distance) {
+            this.edit_distance = edit_distance;
+            this.window_length = 2 * edit_distance + 2;
+            padded_length = input_string.length() + edit_distance;
+            overflow_count = 0;
+            if (padded_string.length < padded_length) {
+                padded_string = new char[padded_length * 2];
+            }
+            Arrays.fill(padded_string, 0, edit_distance, NONALPHABET_CHARACTER);
+            input_string.getChars(0, input_string.length(), padded_string, edit_distance);
+
+            if (padded_length <= MAX_PACKED_LENGTH) {
+                buildPackedVectors();
+            }
+        }
+
+        /**
+         * Prepare the vectors for the query another instance was prepared
+         * for, sharing its read-only tables but not its overflow states.
+         * @param vectors prepared vectors
+         */
+        void copyQuery(QueryVectors vectors) {
+            edit_distance = vectors.edit_distance;
+            window_length = vectors.window_length;
+            padded_string = vectors.padded_string;
+            padded_length = vectors.padded_length;
+            vector_keys = vectors.vector_keys;
+            vector_bits = vectors.vector_bits;
+            vector_mask = vectors.vector_mask;
+            space = vectors.space;
+            overflow_count = 0;
+        }
+
+        /**
+         * Get a state of a lazy automaton, interned or met by the query.
+         * @param state id of the state
+         * @return the state
+         */
+        SpaceState getSpaceState(int state) {
+            if (state >= OVERFLOW_STATE_ID) {
+                return overflow_states[state - OVERFLOW_STATE_ID];
+            }
+            return space.getState(state);
+        }
+
+        /**
+         * Pushes a state the space of the query had no room for.
+         * @param state the state
+         * @return id of the state for this query
+         */
+        int addOverflowState(SpaceState state) {
+            if (overflow_count == overflow_states.length) {
+                overflow_states = Arrays.copyOf(overflow_states, overflow_count * 2);
+            }
+            overflow_states[overflow_count] = state;
+            return OVERFLOW_STATE_ID + overflow_count++;
+        }
+
+        private void buildPackedVectors() {
+            int capacity = vector_keys.length;
+            while (capacity < 2 * padded_length) {
+                capacity *= 2;
+            }
+            if (capacity != vector_keys.length) {
+                vector_keys = new int[capacity];
+                vector_bits = new long[capacity];
+            }
+            Arrays.fill(vector_keys, -1);
+            vector_mask = capacity - 1;
+
+            // the padding never matches, so only the query itself is entered
+            for (int i = edit_distance; i < padded_length; i++) {
+                char c = padded_string[i];
+                int slot = c & vector_mask;
+                while ((vector_keys[slot] != -1) && (vector_keys[slot] != c)) {
+                    slot = (slot + 1) & vector_mask;
+                }
+                if (vector_keys[slot] == -1) {
+                    vector_keys[slot] = c;
+                    vector_bits[slot] = 0L;
+                }
+                vector_bits[slot] |= 1L << (padded_length - 1 - i);
+            }
+        }
+
+        /**
+         * Tells whether the longest word below a dictionary state is long
+         * enough to be within the edit distance of the query.
+         * @param state dictionary state
+         * @param depth length of the path to the state
+         * @return false if every word below the state is too short
+         */
+        boolean reaches(DictionaryAutomaton.DictionaryState state, int depth) {
+            return depth + state.getMaxSuffixLength() >= padded_length - 2 * edit_distance;
+        }
+
+        /**
+         * Tells whether the longest word below a state of a compact
+         * dictionary is long enough to be within the edit distance.
+         * @param dictionary compact dictionary
+         * @param state handle of the state
+         * @param depth length of the path to the state
+         * @return false if every word below the state is too short
+         */
+        boolean reaches(CompactDictionary dictionary, int state, int depth) {
+            return depth + dictionary.getMaxSuffixLength(state) >= padded_length - 2 * edit_distance;
+        }
+
+        /**
+         * Tells whether the lengths of the words below a state of a compact
+         * dictionary allow any of them to be within the edit distance.
+         * @param dictionary compact dictionary
+         * @param state handle of the state
+         * @param depth length of the path to the state
+         * @return false if every word below the state is too short or too
+         * long
+         */
+        boolean admits(CompactDictionary dictionary, int state, int depth) {
+            return reaches(dictionary, state, depth) && (depth + dictionary.getMinSuffixLength(state) <= padded_length);
+        }
+
+        /**
+         * Tells whether the lengths of the words below a dictionary state
+         * allow any of them to be within the edit distance of the query.
+         * @param state dictionary state
+         * @param depth length of the path to the state
+         * @return false if every word below the state is too short or too
+         * long
+         */
+        boolean admits(DictionaryAutomaton.DictionaryState state, int depth) {
+            return reaches(state, depth) && (depth + state.getMinSuffixLength() <= padded_length);
+        }
+
+        private long packedVector(char c) {
+            int slot = c & vector_mask;
+            int key;
+            while ((key = vector_keys[slot]) != -1) {
+                if (key == c) {
+                    return vector_bits[slot];
+                }
+                slot = (slot + 1) & vector_mask;
+            }
+            // characters outside the query share the all-zero vector
+            return 0L;
+        }
+
+        /**
+         * Creates the encoded characteristic vector of a character against
+         * the window of the padded string that starts at the given index.
+         * @param c Character from which the characteristic vector is created
+         * @param index start of the window within the padded string
+         * @return characteristic vector with a marker bit set just above its
+         * bits, or -1 if the index lies beyond the end of the padded string
+         */
+        int characteristicVector(char c, int index) {
+            int len = padded_length - index;
+            if (len < 0) {
+                return -1;
+            }
+            if (len > window_length) {
+                len = window_length;
+            }
+            if (padded_length <= MAX_PACKED_LENGTH) {
+                long packed = packedVector(c);
+                return (1 << len) | (int) ((packed >>> (padded_length - index - len)) & ((1L << len) - 1));
+            }
+
+            int vector = 1 << len;
+            int first_bit = len - 1;
+            for (int i = (index < edit_distance ? edit_distance - index : 0); i < len; i++) {
+                if (c == padded_string[index + i]) {
+                    vector |= 1 << (first_bit - i);
+                }
+            }
+            return vector;
+        }
+    }
+
+    /**
+     * Reusable working storage for recognize.  The traversal stack is kept
+     * as parallel arrays and the current dictionary path as a char buffer,
+     * so that a query only allocates for the results it emits once the
+     * buffers have grown to fit.  One instance is kept per thread.
+     */
+    private static final class QueryContext extends QueryVectors {
+
+        private char[] path = new char[32];
+        private int stack_size;
+        /**
+         * Frames below stack_base have been taken off the bottom of the
+         * stack, see RecognizeTask.
+         */
+        private int stack_base;
+        private DictionaryAutomaton.DictionaryState[] dictionary_stack = new DictionaryAutomaton.DictionaryState[64];
+        /**
+         * States of a CompactDictionary, used instead of dictionary_stack.
+         */
+        private int[] handle_stack = new int[64];
+        private int[] levenshtein_stack = new int[64];
+        private int[] depth_stack = new int[64];
+        private char[] label_stack = new char[64];
+        /**
+         * overflow_count when each frame was pushed, see QueryVectors.
+         */
+        private int[] overflow_marks = new int[64];
+        /**
+         * Labels of the state of a CompactDictionary being expanded.
+         */
+        private char[] label_buffer = new char[16];
+        /**
+         * Dictionary state being expanded, as a DictionaryState or as a
+         * handle into compact_dictionary, and the length of its path.
+         */
+        private DictionaryAutomaton.DictionaryState expanding_state;
+        private CompactDictionary compact_dictionary;
+        private int expanding_handle;
+        private int expanding_depth;
+        /**
+         * Pushes the live edges of expanding_state.
+         */
+        private final EdgeVisitor state_pusher = new EdgeVisitor() {
+
+            @Override
+            public void visitEdge(int edge, char label, int levenshtein_next) {
+                push(expanding_state.getEdgeStates()[edge], levenshtein_next, expanding_depth + 1, label);
+            }
+        };
+        /**
+         * Pushes the live edges of expanding_handle.
+         */
+        private final EdgeVisitor handle_pusher = new EdgeVisitor() {
+
+            @Override
+            public void visitEdge(int edge, char label, int levenshtein_next) {
+                push(compact_dictionary.getEdgeTarget(expanding_handle, edge), levenshtein_next, expanding_depth + 1, label);
+            }
+        };
+
+        /**
+         * Prepare the context for a new query.
+         * @param input_string query string
+         * @param edit_distance number of padding characters to prepend
+         */
+        @Override
+        void reset(String input_string, int edit_distance) {
+            super.reset(input_string, edit_distance);
+            stack_size = 0;
+            stack_base = 0;
+        }
+
+        private void push(DictionaryAutomaton.DictionaryState dictionary_state,
+                int levenshtein_state,
+                int depth,
+                char label) {
+            if (stack_size == depth_stack.length) {
+                grow();
+            }
+            dictionary_stack[stack_size] = dictionary_state;
+            levenshtein_stack[stack_size] = levenshtein_state;
+            depth_stack[stack_size] = depth;
+            label_stack[stack_size] = label;
+            overflow_marks[stack_size] = overflow_count;
+            stack_size++;
+        }
+
+        private void push(int dictionary_state,
+                int levenshtein_state,
+                int depth,
+                char label) {
+            if (stack_size == depth_stack.length) {
+                grow();
+            }
+            handle_stack[stack_size] = dictionary_state;
+            levenshtein_stack[stack_size] = levenshtein_state;
+            depth_stack[stack_size] = depth;
+            label_stack[stack_size] = label;
+            overflow_marks[stack_size] = overflow_count;
+            stack_size++;
+        }
+
+        private void grow() {
+            // reclaim the space of the frames taken off the bottom first
+            int live = stack_size - stack_base;
+            int capacity = (live * 2 > depth_stack.length ? depth_stack.length * 2 : depth_stack.length);
+            dictionary_stack = shift(dictionary_stack, new DictionaryAutomaton.DictionaryState[capacity], live);
+            handle_stack = shift(handle_stack, new int[capacity], live);
+            levenshtein_stack = shift(levenshtein_stack, new int[capacity], live);
+            depth_stack = shift(depth_stack, new int[capacity], live);
+            label_stack = shift(label_stack, new char[capacity], live);
+            overflow_marks = shift(overflow_marks, new int[capacity], live);
+            stack_base = 0;
+            stack_size = live;
+        }
+
+        private <A> A shift(A source, A target, int length) {
+            System.arraycopy(source, stack_base, target, 0, length);
+            return target;
+        }
+
+        /**
+         * Pops the top frame, writing its label into the path buffer and
+         * dropping the overflow states met since it was pushed.  The popped
+         * frame is left readable at index stack_size.
+         */
+        private void pop() {
+            stack_size--;
+            overflow_count = overflow_marks[stack_size];
+            int depth = depth_stack[stack_size];
+            if (depth > 0) {
+                if (path.length < depth) {
+                    path = Arrays.copyOf(path, depth * 2);
+                }
+                path[depth - 1] = label_stack[stack_size];
+            }
+        }
+
+        /**
+         * Copies the labels of a CompactDictionary state into label_buffer.
+         * @param state handle of the state
+         * @param edge_count number of outgoing edges of the state
+         */
+        private void loadLabels(int state, int edge_count) {
+            if (label_buffer.length < edge_count) {
+                label_buffer = new char[edge_count * 2];
+            }
+            for (int i = 0; i < edge_count; i++) {
+                label_buffer[i] = compact_dictionary.getEdgeLabel(state, i);
+            }
+        }
+
+        /**
+         * Drop references to dictionary states left behind by an aborted
+         * query, so that the context does not keep a dictionary or the
+         * overflow states of the query reachable.
+         */
+        private void clear() {
+            Arrays.fill(dictionary_stack, 0, stack_size, null);
+            stack_size = 0;
+            expanding_state = null;
+            compact_dictionary = null;
+            space = null;
+            Arrays.fill(overflow_states, null);
+        }
+    }
+
+    private static final ThreadLocal<QueryContext> query_contexts = new ThreadLocal<QueryContext>() {
+
+        @Override
+        protected QueryContext initialValue() {
+            return new QueryContext();
+        }
+    };
+
+    /**
+     * Receives the outgoing edges of a dictionary state along which this
+     * automaton stays alive, see expand.
+     */
+    private interface EdgeVisitor {
+
+        /**
+         * Called once for every live edge.
+         * @param edge index of the edge among the outgoing edges
+         * @param label label of the edge
+         * @param levenshtein_next state of this automaton after the label
+         */
+        void visitEdge(int edge, char label, int levenshtein_next);
+    }
+
+    /**
+     * Receives the words found while traversing a dictionary.
+     */
+    private interface RecognizeVisitor {
+
+        /**
+         * Called once for every dictionary word within the edit distance.
+         * @param word buffer holding the word, only valid during the call
+         * @param length number of chars of the word in the buffer
+         * @param distance exact Levenshtein distance of the word, or of its
+         * matching prefix in prefix mode
+         * @return false to stop the traversal
+         */
+        boolean visit(char[] word, int length, int distance);
+    }
+
+    /**
+     * Simultaneously traverses a DictionaryAutomaton and the provided
+     * LevenshteinAutomaton to find all words within the specified Levenshtein
+     * distance.
+     * @param input_string used to search for other string within an edit distance
+     * @param dictionary_automaton automaton representing all the words to search
+     * @return Collection containing all the words within the edit distance
+     * matching the input word
+     */
+    public Collection<String> recognize(String input_string, DictionaryAutomaton dictionary_automaton) {
+        TreeSet<String> result = new TreeSet<String>();
+        recognize(input_string, dictionary_automaton, result);
+        return result;
+    }
+
+    /**
+     * Simultaneously traverses a DictionaryAutomaton and the provided
+     * LevenshteinAutomaton, adding all words within the specified Levenshtein
+     * distance to the given collection.  Apart from the Strings added to the
+     * collection the traversal does not allocate, so callers issuing many
+     * queries can reuse a single result collection.
+     * @param input_string used to search for other string within an edit distance
+     * @param dictionary_automaton automaton representing all the words to search
+     * @param result collection to which the matching words are added
+     */
+    public void recognize(String input_string, DictionaryAutomaton dictionary_automaton, final Collection<String> result) {
+        traverse(input_string, dictionary_automaton.getCurrentState(), false, new RecognizeVisitor() {
+
+            @Override
+            public boolean visit(char[] word, int length, int distance) {
+                result.add(new String(word, 0, length));
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Finds the words within the edit distance of each of a batch of
+     * queries in a single traversal of the dictionary.  Every dictionary
+     * state on the traversal stack carries the queries that are still alive
+     * there, paired with their state in this automaton, and a query is
+     * dropped from a branch as soon as its state dies.  The upper levels of
+     * the dictionary are therefore walked once per batch rather than once
+     * per query.
+     * @param queries strings to search for other strings within the edit
+     * distance
+     * @param dictionary_automaton automaton representing all the words to search
+     * @return mapping from every distinct query, in iteration order, to the
+     * words within the edit distance of it
+     */
+    public Map<String, Collection<String>> recognizeAll(Collection<String> queries, DictionaryAutomaton dictionary_automaton) {
+        Map<String, Collection<String>> result = new LinkedHashMap<String, Collection<String>>();
+        for (String query : queries) {
+            if (!result.containsKey(query)) {
+                result.put(query, new TreeSet<String>());
+            }
+        }
+
+        int query_count = result.size();
+        QueryVectors[] vectors = new QueryVectors[query_count];
+        List<Collection<String>> words = new ArrayList<Collection<String>>(result.values());
+        int q = 0;
+        for (String query : result.keySet()) {
+            vectors[q] = new QueryVectors();
+            prepare(vectors[q], query);
+            q++;
+        }
+        if (query_count == 0) {
+            return result;
+        }
+
+        // live (query, Levenshtein state) pairs of all frames on the stack;
+        // a frame's pairs lie above those of every frame pushed before it,
+        // and each pair records the overflow_count of its query when it was
+        // pushed, see QueryVectors
+        int[] pairs = new int[4 * query_count];
+        int[] overflow_marks = new int[2 * query_count];
+        int pair_count = 0;
+        for (q = 0; q < query_count; q++) {
+            pairs[pair_count++] = q;
+            pairs[pair_count++] = START_STATE_ID;
+        }
+
+        EdgeRecorder recorder = new EdgeRecorder();
+        char[] path = new char[32];
+        DictionaryAutomaton.DictionaryState[] dictionary_stack = new DictionaryAutomaton.DictionaryState[64];
+        int[] depth_stack = new int[64];
+        char[] label_stack = new char[64];
+        int[] pair_start_stack = new int[64];
+        int[] pair_end_stack = new int[64];
+        dictionary_stack[0] = dictionary_automaton.getCurrentState();
+        pair_end_stack[0] = pair_count;
+        int stack_size = 1;
+
+        while (stack_size > 0) {
+            stack_size--;
+            DictionaryAutomaton.DictionaryState dictionary_state = dictionary_stack[stack_size];
+            int depth = depth_stack[stack_size];
+            int pair_start = pair_start_stack[stack_size];
+            int pair_end = pair_end_stack[stack_size];
+            dictionary_stack[stack_size] = null;
+            // everything above this frame's pairs belongs to finished frames
+            pair_count = pair_end;
+            if (depth > 0) {
+                if (path.length < depth) {
+                    path = Arrays.copyOf(path, depth * 2);
+                }
+                path[depth - 1] = label_stack[stack_size];
+            }
+
+            // expand every live pair once per frame, a query being live at
+            // most once per frame, recording its next states edge by edge
+            char[] edge_labels = dictionary_state.getEdgeLabels();
+            int edge_count = edge_labels.length;
+            recorder.reset((pair_end - pair_start) / 2 * edge_count);
+            boolean accept = (depth > 0) && dictionary_state.isAccept();
+            String word = null;
+            for (int p = pair_start, j = 0; p < pair_end; p += 2, j++) {
+                recorder.offset = j * edge_count;
+                vectors[pairs[p]].overflow_count = overflow_marks[p / 2];
+                int distance = expand(vectors[pairs[p]], pairs[p + 1], depth, edge_labels, edge_count, recorder);
+                if (accept && (distance != DEAD_STATE_ID)) {
+                    if (word == null) {
+                        word = new String(path, 0, depth);
+                    }
+                    words.get(pairs[p]).add(word);
+                }
+            }
+
+            // expand met the edges in descending order, so pushing them in
+            // that order keeps the overflow states of every query in the
+            // order of their frames
+            DictionaryAutomaton.DictionaryState[] edge_states = dictionary_state.getEdgeStates();
+            for (int i = edge_count - 1; i >= 0; i--) {
+                int child_start = pair_count;
+                for (int p = pair_start, j = 0; p < pair_end; p += 2, j++) {
+                    int levenshtein_next = recorder.next_states[j * edge_count + i];
+                    if ((levenshtein_next == DEAD_STATE_ID) || !vectors[pairs[p]].admits(edge_states[i], depth + 1)) {
+                        continue;
+                    }
+                    if (pair_count + 2 > pairs.length) {
+                        pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                        overflow_marks = Arrays.copyOf(overflow_marks, pairs.length / 2);
+                    }
+                    overflow_marks[pair_count / 2] = vectors[pairs[p]].overflow_count;
+                    pairs[pair_count++] = pairs[p];
+                    pairs[pair_count++] = levenshtein_next;
+                }
+                if (pair_count == child_start) {
+                    // no query survives along this edge
+                    continue;
+                }
+
+                if (stack_size == depth_stack.length) {
+                    int capacity = stack_size * 2;
+                    dictionary_stack = Arrays.copyOf(dictionary_stack, capacity);
+                    depth_stack = Arrays.copyOf(depth_stack, capacity);
+                    label_stack = Arrays.copyOf(label_stack, capacity);
+                    pair_start_stack = Arrays.copyOf(pair_start_stack, capacity);
+                    pair_end_stack = Arrays.copyOf(pair_end_stack, capacity);
+                }
+                dictionary_stack[stack_size] = edge_states[i];
+                depth_stack[stack_size] = depth + 1;
+                label_stack[stack_size] = edge_labels[i];
+                pair_start_stack[stack_size] = child_start;
+                pair_end_stack[stack_size] = pair_count;
+                stack_size++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Records the state reached along every live edge, for recognizeAll.
+     * Each expanded pair gets its own block of next_states, starting at
+     * offset.
+     */
+    private static final class EdgeRecorder implements EdgeVisitor {
+
+        private int[] next_states = new int[64];
+        private int offset;
+
+        /**
+         * Marks every edge of the next blocks as dead.
+         * @param size total size of the blocks
+         */
+        private void reset(int size) {
+            if (next_states.length < size) {
+                next_states = new int[size * 2];
+            }
+            Arrays.fill(next_states, 0, size, DEAD_STATE_ID);
+        }
+
+        @Override
+        public void visitEdge(int edge, char label, int levenshtein_next) {
+            next_states[offset + edge] = levenshtein_next;
+        }
+    }
+
+    /**
+     * Walks a dictionary together with this automaton one word at a time,
+     * for recognizeStream.  Edges are pushed in reverse so that they are
+     * popped in ascending order, which makes the depth-first traversal
+     * yield the words in lexicographic order.
+     */
+    private final class RecognizeSpliterator extends Spliterators.AbstractSpliterator<String> {
+
+        private final QueryContext context = new QueryContext();
+
+        /**
+         * @param input_string used to search for other string within an edit distance
+         * @param dictionary_automaton automaton representing all the words to search
+         */
+        private RecognizeSpliterator(String input_string, DictionaryAutomaton dictionary_automaton) {
+            super(Long.MAX_VALUE, ORDERED | DISTINCT | SORTED | NONNULL);
+            prepare(context, input_string);
+            context.push(dictionary_automaton.getCurrentState(), START_STATE_ID, 0, '\0');
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super String> action) {
+            while (context.stack_size > 0) {
+                context.pop();
+                int top = context.stack_size;
+                DictionaryAutomaton.DictionaryState dictionary_state = context.dictionary_stack[top];
+                int levenshtein_state = context.levenshtein_stack[top];
+                int depth = context.depth_stack[top];
+                context.dictionary_stack[top] = null;
+                if ((depth > 0) && !context.admits(dictionary_state, depth)) {
+                    // no word below has a length within the edit distance
+                    continue;
+                }
+
+                int distance = expandOnto(context, context, dictionary_state, levenshtein_state, depth);
+                if ((depth > 0) && dictionary_state.isAccept() && (distance != DEAD_STATE_ID)) {
+                    // the children are already on the stack, so the walk
+                    // resumes below this word on the next call
+                    action.accept(new String(context.path, 0, depth));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Comparator<? super String> getComparator() {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the words within the edit distance of the input lazily.  The
+     * dictionary is only walked as far as the returned stream is consumed,
+     * so short-circuiting operations such as findFirst, limit and anyMatch
+     * stop the traversal as soon as they are satisfied.  The words are
+     * streamed in lexicographic order.
+     * @param input_string used to search for other string within an edit distance
+     * @param dictionary_automaton automaton representing all the words to search
+     * @return sequential stream of all the words within the edit distance
+     * matching the input word
+     */
+    public Stream<String> recognizeStream(String input_string, DictionaryAutomaton dictionary_automaton) {
+        return StreamSupport.stream(new RecognizeSpliterator(input_string, dictionary_automaton), false);
+    }
+
+    /**
+     * Searches one subtree of a dictionary for recognizeParallel.  The task
+     * walks its subtree depth first like traverse, and while other workers
+     * are short of work it hands the shallowest frame of its stack, the
+     * largest subtree it has left, to a forked task.  Every task collects
+     * its words into its own list and appends the lists of its forked tasks
+     * when joining them, so no locking is needed.
+     */
+    private final class RecognizeTask extends RecursiveTask<ArrayList<String>> {
+
+        private static final long serialVersionUID = 1L;
+        private final QueryVectors vectors;
+        private final DictionaryAutomaton.DictionaryState root_state;
+        private final int root_levenshtein_state;
+        /**
+         * Root state of this automaton if it is an overflow state, whose id
+         * only has meaning in the task that met it.
+         */
+        private final SpaceState root_overflow_state;
+        private final char[] prefix;
+
+        /**
+         * @param vectors characteristic vectors of the query, copied into
+         * the context of the task
+         * @param root_state dictionary state at the root of the subtree
+         * @param root_levenshtein_state state of this automaton reached
+         * along the prefix
+         * @param root_overflow_state root state of this automaton if it is
+         * an overflow state of vectors, null otherwise
+         * @param prefix path from the dictionary root to the subtree
+         */
+        private RecognizeTask(QueryVectors vectors,
+                DictionaryAutomaton.DictionaryState root_state,
+                int root_levenshtein_state,
+                SpaceState root_overflow_state,
+                char[] prefix) {
+            this.vectors = vectors;
+            this.root_state = root_state;
+            this.root_levenshtein_state = root_levenshtein_state;
+            this.root_overflow_state = root_overflow_state;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected ArrayList<String> compute() {
+            ArrayList<String> result = new ArrayList<String>();
+            ArrayList<RecognizeTask> forked_tasks = new ArrayList<RecognizeTask>();
+            QueryContext context = new QueryContext();
+            context.copyQuery(vectors);
+            context.path = Arrays.copyOf(prefix, prefix.length + 32);
+            int levenshtein_root = (root_overflow_state != null
+                    ? context.addOverflowState(root_overflow_state) : root_levenshtein_state);
+            context.push(root_state, levenshtein_root, prefix.length,
+                    (prefix.length > 0 ? prefix[prefix.length - 1] : '\0'));
+
+            while (context.stack_size > context.stack_base) {
+                int base = context.stack_base;
+                if ((context.stack_size - base > 1)
+                        && (context.depth_stack[base] <= MAX_SPLIT_DEPTH)
+                        && (getSurplusQueuedTaskCount() < MAX_SURPLUS_TASKS)) {
+                    // the path holds the prefix of every frame on the stack
+                    int depth = context.depth_stack[base];
+                    char[] fork_prefix = Arrays.copyOf(context.path, depth);
+                    fork_prefix[depth - 1] = context.label_stack[base];
+                    int levenshtein_state = context.levenshtein_stack[base];
+                    RecognizeTask task = new RecognizeTask(context,
+                            context.dictionary_stack[base],
+                            levenshtein_state,
+                            (levenshtein_state >= OVERFLOW_STATE_ID ? context.getSpaceState(levenshtein_state) : null),
+                            fork_prefix);
+                    context.dictionary_stack[base] = null;
+                    context.stack_base++;
+                    task.fork();
+                    forked_tasks.add(task);
+                    continue;
+                }
+
+                context.pop();
+                int top = context.stack_size;
+                DictionaryAutomaton.DictionaryState dictionary_state = context.dictionary_stack[top];
+                int levenshtein_state = context.levenshtein_stack[top];
+                int depth = context.depth_stack[top];
+                context.dictionary_stack[top] = null;
+                if ((depth > 0) && !context.admits(dictionary_state, depth)) {
+                    // no word below has a length within the edit distance
+                    continue;
+                }
+
+                int distance = expandOnto(context, context, dictionary_state, levenshtein_state, depth);
+                if ((depth > 0) && dictionary_state.isAccept() && (distance != DEAD_STATE_ID)) {
+                    result.add(new String(context.path, 0, depth));
+                }
+            }
+
+            for (RecognizeTask task : forked_tasks) {
+                result.addAll(task.join());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Finds all words within the edit distance of the input like recognize,
+     * spreading the traversal of large dictionaries over the common
+     * fork/join pool.
+     * @param input_string used to search for other string within an edit distance
+     * @param dictionary_automaton automaton representing all the words to search
+     * @return Collection containing all the words within the edit distance
+     * matching the input word
+     * @see #PARALLEL_THRESHOLD
+     */
+    public Collection<String> recognizeParallel(String input_string, DictionaryAutomaton dictionary_automaton) {
+        return recognizeParallel(input_string, dictionary_automaton, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds all words within the edit distance of the input like recognize,
+     * spreading the traversal of large dictionaries over the given pool.
+     * Subtrees are split off the traversal stack whenever a worker runs out
+     * of work, so skewed dictionaries are balanced by work stealing.
+     * Dictionaries with fewer than PARALLEL_THRESHOLD states, and pools of a
+     * single worker, are searched on the calling thread.
+     * @param input_string used to search for other string within an edit distance
+     * @param dictionary_automaton automaton representing all the words to search
+     * @param pool pool running the traversal
+     * @return Collection containing all the words within the edit distance
+     * matching the input word
+     */
+    public Collection<String> recognizeParallel(String input_string, DictionaryAutomaton dictionary_automaton, ForkJoinPool pool) {
+        if ((dictionary_automaton.getStateCount() < PARALLEL_THRESHOLD) || (pool.getParallelism() < 2)) {
+            return recognize(input_string, dictionary_automaton);
+        }
+
+        QueryVectors vectors = new QueryVectors();
+        prepare(vectors, input_string);
+        return new TreeSet<String>(pool.invoke(new RecognizeTask(vectors,
+                dictionary_automaton.getCurrentState(),
+                START_STATE_ID,
+                null,
+                new char[0])));
+    }
+
+    /**
+     * Finds all words of a dictionary that start with a prefix within the
+     * edit distance of the input, as needed for autocompletion.
+     * @param input_string prefix typed so far
+     * @param dictionary_automaton automaton representing all the words to search
+     * @return Collection containing all the words with a prefix within the
+     * edit distance of the input
+     */
+    public Collection<String> recognizePrefix(String input_string, DictionaryAutomaton dictionary_automaton) {
+        return recognizePrefix(input_string, dictionary_automaton, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Finds the lexicographically first words of a dictionary that start
+     * with a prefix within the edit distance of the input.  Once a path
+     * through the dictionary is within the edit distance, every word below
+     * it is taken without evaluating further characteristic vectors, and
+     * the traversal stops as soon as max_results words have been found.
+     * @param input_string prefix typed so far
+     * @param dictionary_automaton automaton representing all the words to search
+     * @param max_results maximum number of words to return
+     * @return Collection containing at most max_results words with a prefix
+     * within the edit distance of the input
+     */
+    public Collection<String> recognizePrefix(String input_string, DictionaryAutomaton dictionary_automaton, final int max_results) {
+        if (max_results < 0) {
+            throw new IllegalArgumentException("max_results must not be negative");
+        }
+
+        final TreeSet<String> result = new TreeSet<String>();
+        if (max_results == 0) {
+            return result;
+        }
+        traverse(input_string, dictionary_automaton.getCurrentState(), true, new RecognizeVisitor() {
+
+            @Override
+            public boolean visit(char[] word, int length, int distance) {
+                result.add(new String(word, 0, length));
+                return result.size() < max_results;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Word found by recognizeBest, ordered worst first so that a priority
+     * queue of them keeps the worst of the best words found at its head.
+     */
+    private static final class RankedWord implements Comparable<RankedWord> {
+
+        private final String word;
+        private final int distance;
+        private final int weight;
+
+        private RankedWord(String word, int distance, int weight) {
+            this.word = word;
+            this.distance = distance;
+            this.weight = weight;
+        }
+
+        /**
+         * Tells whether a word of the given distance and weight ranks
+         * strictly better than this one.
+         */
+        private boolean isBeaten(int distance, int weight) {
+            return (distance < this.distance) || ((distance == this.distance) && (weight > this.weight));
+        }
+
+        @Override
+        public int compareTo(RankedWord other) {
+            if (distance != other.distance) {
+                return (distance > other.distance ? -1 : 1);
+            }
+            if (weight != other.weight) {
+                return (weight < other.weight ? -1 : 1);
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Finds the best words within the edit distance of the input, ranked by
+     * their Levenshtein distance and then by their weight in the
+     * dictionary.  The best words found so far are kept in a bounded
+     * priority queue, and every subtree is bounded by the least distance its
+     * Levenshtein state can still accept with and by the greatest weight
+     * below it.  Once max_results words have been found, subtrees that
+     * cannot beat the worst of them are skipped, so the search is cut short
+     * ever more as better words turn up.  Words of equal distance and weight
+     * are ranked arbitrarily.
+     * @param input_string used to search for other string within an edit distance
+     * @param dictionary_automaton automaton representing all the words to search
+     * @param max_results maximum number of words to return
+     * @return at most max_results words within the edit distance, best first
+     * @see DictionaryAutomaton#DictionaryAutomaton(Map)
+     */
+    public List<String> recognizeBest(String input_string, DictionaryAutomaton dictionary_automaton, final int max_results) {
+        if (max_results < 0) {
+            throw new IllegalArgumentException("max_results must not be negative");
+        }
+
+        final PriorityQueue<RankedWord> best = new PriorityQueue<RankedWord>(Math.max(max_results, 1));
+        final QueryContext context = query_contexts.get();
+        prepare(context, input_string);
+        if (max_results > 0) {
+            context.push(dictionary_automaton.getCurrentState(), START_STATE_ID, 0, '\0');
+        }
+        EdgeVisitor pruning_pusher = new EdgeVisitor() {
+
+            @Override
+            public void visitEdge(int edge, char label, int levenshtein_next) {
+                DictionaryAutomaton.DictionaryState next_state = context.expanding_state.getEdgeStates()[edge];
+                int min_distance = minimumDistance(context, levenshtein_next);
+                if ((min_distance > edit_distance)
+                        || ((best.size() == max_results)
+                        && !best.peek().isBeaten(min_distance, next_state.getMaxWeight()))) {
+                    // no word below can be accepted or make the results
+                    return;
+                }
+                context.push(next_state, levenshtein_next, context.expanding_depth + 1, label);
+            }
+        };
+        try {
+            while (context.stack_size > 0) {
+                context.pop();
+                int top = context.stack_size;
+                DictionaryAutomaton.DictionaryState dictionary_state = context.dictionary_stack[top];
+                int levenshtein_state = context.levenshtein_stack[top];
+                int depth = context.depth_stack[top];
+                context.dictionary_stack[top] = null;
+
+                if ((best.size() == max_results)
+                        && !best.peek().isBeaten(minimumDistance(context, levenshtein_state), dictionary_state.getMaxWeight())) {
+                    // the subtree was pushed before the worst word improved
+                    continue;
+                }
+                if ((depth > 0) && !context.admits(dictionary_state, depth)) {
+                    // no word below has a length within the edit distance
+                    continue;
+                }
+
+                context.expanding_state = dictionary_state;
+                context.expanding_depth = depth;
+                char[] edge_labels = dictionary_state.getEdgeLabels();
+                int distance = expand(context, levenshtein_state, depth, edge_labels, edge_labels.length, pruning_pusher);
+                if ((depth > 0) && dictionary_state.isAccept() && (distance != DEAD_STATE_ID)) {
+                    int weight = dictionary_state.getWeight();
+                    if (best.size() < max_results) {
+                        best.add(new RankedWord(new String(context.path, 0, depth), distance, weight));
+                    } else if (best.peek().isBeaten(distance, weight)) {
+                        best.poll();
+                        best.add(new RankedWord(new String(context.path, 0, depth), distance, weight));
+                    }
+                }
+            }
+        } finally {
+            context.clear();
+        }
+
+        RankedWord[] ranked = best.toArray(new RankedWord[best.size()]);
+        Arrays.sort(ranked, Collections.reverseOrder());
+        List<String> result = new ArrayList<String>(ranked.length);
+        for (RankedWord ranked_word : ranked) {
+            result.add(ranked_word.word);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the ordinals of all words of a dictionary within the edit
+     * distance, so that callers keying data by word can index arrays
+     * instead of hashing result Strings.  Every traversal frame carries the
+     * ordinal of the first word below it, so ordinals are found without
+     * walking back from the root.
+     * @param input_string used to search for other string within an edit distance
+     * @param dictionary_automaton automaton representing all the words to search
+     * @return ascending ordinals of the words within the edit distance
+     * @see DictionaryAutomaton#indexOf(CharSequence)
+     * @see DictionaryAutomaton#wordAt(int)
+     */
+    public int[] recognizeOrdinals(String input_string, DictionaryAutomaton dictionary_automaton) {
+        QueryContext context = query_contexts.get();
+        prepare(context, input_string);
+        OrdinalPusher pusher = new OrdinalPusher(context);
+        int[] ordinals = new int[16];
+        int ordinal_count = 0;
+
+        context.push(dictionary_automaton.getCurrentState(), START_STATE_ID, 0, '\0');
+        try {
+            while (context.stack_size > 0) {
+                context.pop();
+                int top = context.stack_size;
+                DictionaryAutomaton.DictionaryState dictionary_state = context.dictionary_stack[top];
+                int levenshtein_state = context.levenshtein_stack[top];
+                int depth = context.depth_stack[top];
+                int ordinal = pusher.ordinal_stack[top];
+                context.dictionary_stack[top] = null;
+                if ((depth > 0) && !context.admits(dictionary_state, depth)) {
+                    // no word below has a length within the edit distance
+                    continue;
+                }
+
+                context.expanding_depth = depth;
+                pusher.start(dictionary_state, ordinal);
+                char[] edge_labels = dictionary_state.getEdgeLabels();
+                int distance = expand(context, levenshtein_state, depth, edge_labels, edge_labels.length, pusher);
+                if ((depth > 0) && dictionary_state.isAccept() && (distance != DEAD_STATE_ID)) {
+                    if (ordinal_count == ordinals.length) {
+                        ordinals = Arrays.copyOf(ordinals, ordinal_count * 2);
+                    }
+                    ordinals[ordinal_count++] = ordinal;
+                }
+            }
+        } finally {
+            context.clear();
+        }
+        return Arrays.copyOf(ordinals, ordinal_count);
+    }
+
+    /**
+     * Pushes the live edges of a dictionary state for recognizeOrdinals,
+     * recording for every pushed frame the ordinal of the first word below
+     * it: the ordinal of the state being expanded, plus one if that state
+     * accepts, plus the words below the edges left of the pushed one.
+     */
+    private static final class OrdinalPusher implements EdgeVisitor {
+
+        private final QueryContext context;
+        /**
+         * Ordinals of the frames of the stack of context, by frame index.
+         */
+        private int[] ordinal_stack = new int[64];
+        private DictionaryAutomaton.DictionaryState[] edge_states;
+        /**
+         * Edges are visited in descending order; skipped_words is the
+         * ordinal of the first word below edge next_edge.
+         */
+        private int next_edge;
+        private int skipped_words;
+
+        private OrdinalPusher(QueryContext context) {
+            this.context = context;
+        }
+
+        /**
+         * Prepares the pusher for the edges of a state.
+         * @param state state to be expanded
+         * @param ordinal ordinal of the first word below the state
+         */
+        private void start(DictionaryAutomaton.DictionaryState state, int ordinal) {
+            edge_states = state.getEdgeStates();
+            next_edge = edge_states.length;
+            skipped_words = ordinal + (state.isAccept() ? 1 : 0);
+            for (DictionaryAutomaton.DictionaryState next_state : edge_states) {
+                skipped_words += next_state.getWordCount();
+            }
+        }
+
+        @Override
+        public void visitEdge(int edge, char label, int levenshtein_next) {
+            while (next_edge > edge) {
+                next_edge--;
+                skipped_words -= edge_states[next_edge].getWordCount();
+            }
+            context.push(edge_states[edge], levenshtein_next, context.expanding_depth + 1, label);
+            if (ordinal_stack.length < context.stack_size) {
+                ordinal_stack = Arrays.copyOf(ordinal_stack, context.stack_size * 2);
+            }
+            ordinal_stack[context.stack_size - 1] = skipped_words;
+        }
+    }
+
+    /**
+     * Simultaneously traverses a CompactDictionary and this automaton to
+     * find all words within the edit distance.
+     * @param input_string used to search for other string within an edit distance
+     * @param dictionary compact dictionary representing all the words to search
+     * @return Collection containing all the words within the edit distance
+     * matching the input word
+     */
+    public Collection<String> recognize(String input_string, CompactDictionary dictionary) {
+        TreeSet<String> result = new TreeSet<String>();
+        recognize(input_string, dictionary, result);
+        return result;
+    }
+
+    /**
+     * Simultaneously traverses a CompactDictionary and this automaton,
+     * adding all words within the edit distance to the given collection.
+     * @param input_string used to search for other string within an edit distance
+     * @param dictionary compact dictionary representing all the words to search
+     * @param result collection to which the matching words are added
+     */
+    public void recognize(String input_string, CompactDictionary dictionary, final Collection<String> result) {
+        traverse(input_string, dictionary, false, new RecognizeVisitor() {
+
+            @Override
+            public boolean visit(char[] word, int length, int distance) {
+                result.add(new String(word, 0, length));
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Finds the lexicographically first words of a CompactDictionary that
+     * start with a prefix within the edit distance of the input.
+     * @param input_string prefix typed so far
+     * @param dictionary compact dictionary representing all the words to search
+     * @param max_results maximum number of words to return
+     * @return Collection containing at most max_results words with a prefix
+     * within the edit distance of the input
+     * @see #recognizePrefix(String, DictionaryAutomaton, int)
+     */
+    public Collection<String> recognizePrefix(String input_string, CompactDictionary dictionary, final int max_results) {
+        if (max_results < 0) {
+            throw new IllegalArgumentException("max_results must not be negative");
+        }
+
+        final TreeSet<String> result = new TreeSet<String>();
+        if (max_results == 0) {
+            return result;
+        }
+        traverse(input_string, dictionary, true, new RecognizeVisitor() {
+
+            @Override
+            public boolean visit(char[] word, int length, int distance) {
+                result.add(new String(word, 0, length));
+                return result.size() < max_results;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Finds all words of a CompactDictionary within the given distance of
+     * the input, grouped by their exact Levenshtein distance.
+     * @param distance maximum distance, at most the edit distance of this
+     * automaton
+     * @param input candidate string for correction
+     * @param dictionary compact dictionary representing all the words to search
+     * @return mapping between error distances and corrected strings
+     */
+    public MultiMap<Integer, String> correctError(final int distance, String input, CompactDictionary dictionary) {
+        if ((distance < 0) || (distance > edit_distance)) {
+            throw new IllegalArgumentException("distance must be between 0 and " + edit_distance);
+        }
+
+        final MultiMap<Integer, String> result = new MultiMap<Integer, String>();
+        traverse(input, dictionary, false, new RecognizeVisitor() {
+
+            @Override
+            public boolean visit(char[] word, int length, int word_distance) {
+                if (word_distance <= distance) {
+                    result.put(word_distance, new String(word, 0, length));
+                }
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Finds all words of a dictionary within the given distance of the
+     * input, grouped by their exact Levenshtein distance.  The distances are
+     * read from the accepting states, so no further distance calculation is
+     * needed.
+     * @param distance maximum distance, at most the edit distance of this
+     * automaton
+     * @param input candidate string for correction
+     * @param dictionary_automaton automaton representing all the words to search
+     * @return mapping between error distances and corrected strings
+     */
+    public MultiMap<Integer, String> correctError(final int distance, String input, DictionaryAutomaton dictionary_automaton) {
+        if ((distance < 0) || (distance > edit_distance)) {
+            throw new IllegalArgumentException("distance must be between 0 and " + edit_distance);
+        }
+
+        final MultiMap<Integer, String> result = new MultiMap<Integer, String>();
+        traverse(input, dictionary_automaton.getCurrentState(), false, new RecognizeVisitor() {
+
+            @Override
+            public boolean visit(char[] word, int length, int word_distance) {
+                if (word_distance <= distance) {
+                    result.put(word_distance, new String(word, 0, length));
+                }
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Finds all words of the dictionary this automaton was constructed with
+     * within the given distance of the input.
+     * @param distance maximum distance, at most the edit distance of this
+     * automaton
+     * @param input candidate string for correction
+     * @return mapping between error distances and corrected strings
+     * @see #LevenshteinAutomaton(LevenshteinAutomaton, DictionaryAutomaton)
+     */
+    @Override
+    public MultiMap<Integer, String> correctError(int distance, String input) {
+        if (dictionary_automaton == null) {
+            throw new IllegalStateException("No dictionary was given to this automaton");
+        }
+        return correctError(distance, input, dictionary_automaton);
+    }
+
+    /**
+     * Simultaneously traverses a DictionaryAutomaton and this automaton,
+     * passing every word within the edit distance to the visitor in
+     * lexicographic order.  In prefix mode the whole subtree below a path
+     * within the edit distance is passed on without evaluating any further
+     * characteristic vectors.
+     * @param input_string used to search for other string within an edit distance
+     * @param root root state of the dictionary, read once so that the
+     * traversal sees a consistent snapshot
+     * @param prefix whether words with a matching prefix are passed on
+     * @param visitor receiver of the words found
+     */
+    private void traverse(String input_string, DictionaryAutomaton.DictionaryState root, boolean prefix, RecognizeVisitor visitor) {
+        QueryContext context = query_contexts.get();
+        prepare(context, input_string);
+
+        context.push(root, START_STATE_ID, 0, '\0');
+        try {
+            while (context.stack_size > 0) {
+                context.pop();
+                int top = context.stack_size;
+                DictionaryAutomaton.DictionaryState dictionary_state = context.dictionary_stack[top];
+                int levenshtein_state = context.levenshtein_stack[top];
+                int depth = context.depth_stack[top];
+                context.dictionary_stack[top] = null;
+
+                if ((depth > 0) && (prefix ? !context.reaches(dictionary_state, depth) : !context.admits(dictionary_state, depth))) {
+                    // no word below has a length within the edit distance
+                    continue;
+                }
+
+                int distance = (prefix ? prefixDistance(context, levenshtein_state) : DEAD_STATE_ID);
+                if (distance != DEAD_STATE_ID) {
+                    // the path matches, so every word below it is passed on
+                    if ((depth > 0) && dictionary_state.isAccept()
+                            && !visitor.visit(context.path, depth, distance)) {
+                        return;
+                    }
+                    char[] edge_labels = dictionary_state.getEdgeLabels();
+                    DictionaryAutomaton.DictionaryState[] edge_states = dictionary_state.getEdgeStates();
+                    for (int i = edge_labels.length - 1; i >= 0; i--) {
+                        context.push(edge_states[i], PREFIX_STATE_ID - distance, depth + 1, edge_labels[i]);
+                    }
+                    continue;
+                }
+
+                distance = expandOnto(context, context, dictionary_state, levenshtein_state, depth);
+                if ((depth > 0) && dictionary_state.isAccept() && (distance != DEAD_STATE_ID)
+                        && !visitor.visit(context.path, depth, distance)) {
+                    // accept state for both automata, the visitor has seen enough
+                    return;
+                }
+            }
+        } finally {
+            context.clear();
+        }
+    }
+
+    /**
+     * Simultaneously traverses a CompactDictionary and this automaton like
+     * traverse, addressing the dictionary states by their handles.
+     * @param input_string used to search for other string within an edit distance
+     * @param dictionary compact dictionary representing all the words to search
+     * @param prefix whether words with a matching prefix are passed on
+     * @param visitor receiver of the words found
+     */
+    private void traverse(String input_string, CompactDictionary dictionary, boolean prefix, RecognizeVisitor visitor) {
+        QueryContext context = query_contexts.get();
+        prepare(context, input_string);
+        context.compact_dictionary = dictionary;
+
+        context.push(dictionary.getRootState(), START_STATE_ID, 0, '\0');
+        try {
+            while (context.stack_size > 0) {
+                context.pop();
+                int top = context.stack_size;
+                int dictionary_state = context.handle_stack[top];
+                int levenshtein_state = context.levenshtein_stack[top];
+                int depth = context.depth_stack[top];
+
+                if ((depth > 0) && (prefix ? !context.reaches(dictionary, dictionary_state, depth) : !context.admits(dictionary, dictionary_state, depth))) {
+                    // no word below has a length within the edit distance
+                    continue;
+                }
+
+                int edge_count = dictionary.getEdgeCount(dictionary_state);
+                int distance = (prefix ? prefixDistance(context, levenshtein_state) : DEAD_STATE_ID);
+                if (distance != DEAD_STATE_ID) {
+                    if ((depth > 0) && dictionary.isAccept(dictionary_state)
+                            && !visitor.visit(context.path, depth, distance)) {
+                        return;
+                    }
+                    for (int i = edge_count - 1; i >= 0; i--) {
+                        context.push(dictionary.getEdgeTarget(dictionary_state, i), PREFIX_STATE_ID - distance, depth + 1,
+                                dictionary.getEdgeLabel(dictionary_state, i));
+                    }
+                    continue;
+                }
+
+                context.loadLabels(dictionary_state, edge_count);
+                context.expanding_handle = dictionary_state;
+                context.expanding_depth = depth;
+                distance = expand(context, levenshtein_state, depth, context.label_buffer, edge_count, context.handle_pusher);
+                if ((depth > 0) && dictionary.isAccept(dictionary_state) && (distance != DEAD_STATE_ID)
+                        && !visitor.visit(context.path, depth, distance)) {
+                    return;
+                }
+            }
+        } finally {
+            context.clear();
+        }
+    }
+
+    /**
+     * Gets the distance of the prefix a traversal frame matches in prefix
+     * mode.  Frames below a matching prefix carry PREFIX_STATE_ID minus that
+     * distance, and a frame whose own state accepts starts such a subtree.
+     * @param vectors characteristic vectors of the query
+     * @param levenshtein_state state of the frame
+     * @return distance of the matching prefix, or DEAD_STATE_ID if the path
+     * does not match yet
+     */
+    private int prefixDistance(QueryVectors vectors, int levenshtein_state) {
+        if (levenshtein_state <= PREFIX_STATE_ID) {
+            return PREFIX_STATE_ID - levenshtein_state;
+        }
+        return acceptDistance(vectors, levenshtein_state);
+    }
+
+    /**
+     * Prepares the characteristic vectors of a query, and for a lazy
+     * automaton picks the state space the query explores.
+     * @param vectors vectors to prepare
+     * @param input_string query string
+     */
+    private void prepare(QueryVectors vectors, String input_string) {
+        vectors.reset(input_string, edit_distance);
+        vectors.space = lazy_space;
+    }
+
+    /**
+     * Steps this automaton from one state along the outgoing edges of a
+     * dictionary state.  This is the one place where traversals read
+     * transitions: the state is looked up once and its transition on the
+     * characteristic vector of every label read, and transitions a lazy
+     * automaton has not computed yet are computed here.  Live edges are
+     * passed to the visitor in descending order, so that a visitor pushing
+     * them onto a stack pops them in ascending order.
+     * @param vectors characteristic vectors of the query
+     * @param levenshtein_state state of this automaton
+     * @param depth length of the dictionary path to the state
+     * @param edge_labels labels of the outgoing edges, in ascending order
+     * @param edge_count number of outgoing edges
+     * @param visitor receiver of the edges along which this automaton stays
+     * alive
+     * @return distance of levenshtein_state if it accepts, DEAD_STATE_ID
+     * otherwise
+     */
+    private int expand(QueryVectors vectors,
+            int levenshtein_state,
+            int depth,
+            char[] edge_labels,
+            int edge_count,
+            EdgeVisitor visitor) {
+        PositionStateSpace space = vectors.space;
+        if (space == null) {
+            int row = levenshtein_state * vector_width;
+            for (int i = edge_count - 1; i >= 0; i--) {
+                char c = edge_labels[i];
+                int characteristic_vector = vectors.characteristicVector(c, depth);
+                if (characteristic_vector < 0) {
+                    continue;
+                }
+                int levenshtein_next = transition_table[row + characteristic_vector];
+                if (levenshtein_next != DEAD_STATE_ID) {
+                    visitor.visitEdge(i, c, levenshtein_next);
+                }
+            }
+            return (accept_states.get(levenshtein_state) ? accept_distances[levenshtein_state] : DEAD_STATE_ID);
+        }
+
+        SpaceState state = vectors.getSpaceState(levenshtein_state);
+        boolean interned = (levenshtein_state < OVERFLOW_STATE_ID);
+        if (!interned) {
+            // the overflow states above belong to frames already left
+            vectors.overflow_count = levenshtein_state - OVERFLOW_STATE_ID;
+        }
+        for (int i = edge_count - 1; i >= 0; i--) {
+            char c = edge_labels[i];
+            int characteristic_vector = vectors.characteristicVector(c, depth);
+            if (characteristic_vector < 0) {
+                continue;
+            }
+            int levenshtein_next = (interned ? state.getTransition(characteristic_vector) : UNKNOWN_STATE_ID);
+            if (levenshtein_next == UNKNOWN_STATE_ID) {
+                levenshtein_next = space.transition(vectors, levenshtein_state, state, characteristic_vector);
+            }
+            if (levenshtein_next != DEAD_STATE_ID) {
+                visitor.visitEdge(i, c, levenshtein_next);
+            }
+        }
+        return state.distance;
+    }
+
+    /**
+     * Expands a DictionaryState, pushing its live edges onto the stack of a
+     * context.
+     * @param context context whose stack receives the edges
+     * @param vectors characteristic vectors of the query
+     * @param dictionary_state dictionary state to expand
+     * @param levenshtein_state state of this automaton
+     * @param depth length of the dictionary path to the state
+     * @return distance of levenshtein_state if it accepts, DEAD_STATE_ID
+     * otherwise
+     * @see #expand
+     */
+    private int expandOnto(QueryContext context,
+            QueryVectors vectors,
+            DictionaryAutomaton.DictionaryState dictionary_state,
+            int levenshtein_state,
+            int depth) {
+        context.expanding_state = dictionary_state;
+        context.expanding_depth = depth;
+        char[] edge_labels = dictionary_state.getEdgeLabels();
+        return expand(vectors, levenshtein_state, depth, edge_labels, edge_labels.length, context.state_pusher);
+    }
+
+    /**
+     * Gets a lower bound on the distance of every word accepted from a
+     * state.  Lazy automata use the least error of the positions of the
+     * state, while compiled automata use the least distance of any
+     * accepting state reachable in the transition table, found on first
+     * use.
+     * @param vectors characteristic vectors of the query
+     * @param state identifier of the state
+     * @return lower bound on the distance, greater than the edit distance if
+     * no accepting state is reachable
+     */
+    private int minimumDistance(QueryVectors vectors, int state) {
+        if (vectors.space != null) {
+            return vectors.getSpaceState(state).min_error;
+        }
+
+        int[] distances = min_distances;
+        if (distances == null) {
+            int state_count = accept_distances.length;
+            distances = new int[state_count];
+            for (int s = 0; s < state_count; s++) {
+                distances[s] = (accept_states.get(s) ? accept_distances[s] : Integer.MAX_VALUE);
+            }
+            // relax until no shorter distance propagates back
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int s = state_count - 1; s >= 0; s--) {
+                    int row = s * vector_width;
+                    int distance = distances[s];
+                    for (int vector = 1; vector < vector_width; vector++) {
+                        int next = transition_table[row + vector];
+                        if ((next >= 0) && (distances[next] < distance)) {
+                            distance = distances[next];
+                        }
+                    }
+                    if (distance < distances[s]) {
+                        distances[s] = distance;
+                        changed = true;
+                    }
+                }
+            }
+            min_distances = distances;
+        }
+        return distances[state];
+    }
+
+    /**
+     * Gets the Levenshtein distance recorded for a state.
+     * @param vectors characteristic vectors of the query
+     * @param state identifier of the state
+     * @return distance of an accepting state, or DEAD_STATE_ID if the state
+     * does not accept
+     */
+    private int acceptDistance(QueryVectors vectors, int state) {
+        if (vectors.space != null) {
+            return vectors.getSpaceState(state).distance;
+        }
+        return (accept_states.get(state) ? accept_distances[state] : DEAD_STATE_ID);
+    }
+
+    /**
+     * Generate a new LevenshteinAutomaton instance from scratch.
+     * @param edit_distance Distance greater than or equal to one of the
+     * desired LevenshteinAutomaton
+     * @return New LevenshteinAutomaton instance of the given edit distance
+     */
+    public static LevenshteinAutomaton generateLevenshtein(int edit_distance) {
+        return generateLevenshtein(edit_distance, DEFAULT_CHI);
+    }
+
+    /**
+     * Generate a new LevenshteinAutomaton instance of a variant of the
+     * Levenshtein distance from scratch, and write it to disk in the binary
+     * format.
+     * @param edit_distance Distance greater than or equal to one of the
+     * desired LevenshteinAutomaton
+     * @param chi variant of the distance
+     * @return New LevenshteinAutomaton instance of the given edit distance
+     */
+    public static LevenshteinAutomaton generateLevenshtein(int edit_distance, ChiType chi) {
+        LevenshteinAutomaton levenshtein = new LevenshteinAutomaton(edit_distance, chi);
+        try {
+            OutputStream out = new FileOutputStream(getLevenshteinFileName(edit_distance, chi));
+            try {
+                levenshtein.write(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException io_excep) {
+            io_excep.printStackTrace();
+        }
+        return levenshtein;
+    }
+
+    /**
+     * Writes the compiled automaton in the binary format.  All values are
+     * big-endian:
+     * <pre>
+     * int    FILE_MAGIC
+     * int    FILE_VERSION
+     * int    edit distance
+     * int    chi, as the ordinal of ChiType
+     * int    number of states n
+     * int    transition table, n * 2^(2k+3) entries
+     * long   accept bitmap, (n + 63) / 64 words as by BitSet.toLongArray
+     * int    distance of each state, for accepting states only
+     * </pre>
+     * @param out stream to write to, which is not closed
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(OutputStream out) throws IOException {
+        if (transition_table == null) {
+            throw new IllegalStateException("Lazily explored automata cannot be written");
+        }
+
+        int state_count = getStateCount();
+        DataOutputStream data_out = new DataOutputStream(new BufferedOutputStream(out));
+        data_out.writeInt(FILE_MAGIC);
+        data_out.writeInt(FILE_VERSION);
+        data_out.writeInt(edit_distance);
+        data_out.writeInt(chi.ordinal());
+        data_out.writeInt(state_count);
+        for (int next_state : transition_table) {
+            data_out.writeInt(next_state);
+        }
+        long[] accept_words = Arrays.copyOf(accept_states.toLongArray(), (state_count + 63) / 64);
+        for (long word : accept_words) {
+            data_out.writeLong(word);
+        }
+        for (int distance : accept_distances) {
+            data_out.writeInt(distance);
+        }
+        data_out.flush();
+    }
+
+    /**
+     * Reads an automaton written by write.  The tables are copied out of
+     * the buffer with bulk gets, so a memory-mapped file is read without
+     * building any objects besides the arrays themselves.
+     * @param buffer buffer positioned at the start of the automaton
+     * @return the automaton read
+     * @throws IOException if the buffer does not hold a supported automaton
+     */
+    public static LevenshteinAutomaton read(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if ((buffer.remaining() < 20) || (buffer.getInt() != FILE_MAGIC)) {
+            throw new IOException("Not a Levenshtein automaton");
+        }
+        int version = buffer.getInt();
+        if (version != FILE_VERSION) {
+            throw new IOException("Unsupported Levenshtein automaton version " + version);
+        }
+        int edit_distance = buffer.getInt();
+        int chi_ordinal = buffer.getInt();
+        int state_count = buffer.getInt();
+        if ((edit_distance < 0) || (edit_distance > MAX_EDIT_DISTANCE)
+                || (chi_ordinal < 0) || (chi_ordinal >= ChiType.values().length) || (state_count < 1)) {
+            throw new IOException("Corrupt Levenshtein automaton header");
+        }
+
+        int vector_width = 1 << (2 * edit_distance + 3);
+        if (state_count > Integer.MAX_VALUE / vector_width) {
+            throw new IOException("Corrupt Levenshtein automaton header");
+        }
+        int[] transition_table = new int[state_count * vector_width];
+        long[] accept_words = new long[(state_count + 63) / 64];
+        int[] accept_distances = new int[state_count];
+        try {
+            buffer.asIntBuffer().get(transition_table);
+            ((Buffer) buffer).position(buffer.position() + 4 * transition_table.length);
+            buffer.asLongBuffer().get(accept_words);
+            ((Buffer) buffer).position(buffer.position() + 8 * accept_words.length);
+            buffer.asIntBuffer().get(accept_distances);
+            ((Buffer) buffer).position(buffer.position() + 4 * accept_distances.length);
+        } catch (BufferUnderflowException bu_excep) {
+            throw new IOException("Truncated Levenshtein automaton");
+        }
+
+        return new LevenshteinAutomaton(edit_distance, ChiType.values()[chi_ordinal],
+                transition_table, BitSet.valueOf(accept_words), accept_distances);
+    }
+
+    /**
+     * Constructs a LevenshteinAutomaton from its compiled form.
+     */
+    private LevenshteinAutomaton(int edit_distance,
+            ChiType chi,
+            int[] transition_table,
+            BitSet accept_states,
+            int[] accept_distances) {
+        super();
+
+        this.chi = chi;
+        this.edit_distance = edit_distance;
+        this.root_node = new State<FixedLengthBitSet>(null, START_STATE.toString());
+        this.vector_width = 1 << (2 * edit_distance + 3);
+        this.transition_table = transition_table;
+        this.accept_states = accept_states;
+        this.accept_distances = accept_distances;
+    }
+
+    /**
+     * Builds a formatted file name based on the edit distance and variant.
+     * The standard variant keeps the original naming.
+     * @param edit_distance Edit distance of desired file name
+     * @param chi variant of the distance
+     * @return A valid file name for a LevenshteinAutomaton instance
+     */
+    private static String getLevenshteinFileName(int edit_distance, ChiType chi) {
+        if (chi == ChiType.EPSILON) {
+            return String.format("dist%03d.lev", edit_distance);
+        }
+        return String.format("dist%03d-%s.lev", edit_distance, chi.name().toLowerCase());
+    }
+
+    /**
+     * Load an existing instance of LevenshteinAutomaton.
+     * Will search the JAR file first, and then check on the local disk.
+     * @param edit_distance Distance greater than or equal to one of the
+     * desired LevenshteinAutomaton
+     * @return LevenshteinAutomaton instance if one exists, null otherwise
+     */
+    public static LevenshteinAutomaton loadLevenshteinAutomaton(int edit_distance) {
+        return loadLevenshteinAutomaton(edit_distance, DEFAULT_CHI);
+    }
+
+    /**
+     * Load an existing instance of LevenshteinAutomaton of a variant of the
+     * Levenshtein distance.  Will search the JAR file first, and then check
+     * on the local disk, where the file is memory-mapped.  Files written
+     * with Java serialization by earlier versions are still read.
+     * @param edit_distance Distance greater than or equal to one of the
+     * desired LevenshteinAutomaton
+     * @param chi variant of the distance
+     * @return LevenshteinAutomaton instance if one exists, null otherwise
+     */
+    public static LevenshteinAutomaton loadLevenshteinAutomaton(int edit_distance, ChiType chi) {
+        try {
+            return readLevenshteinAutomaton(edit_distance, chi);
+        } catch (IOException io_excep) {
+            io_excep.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Reads an existing instance of LevenshteinAutomaton from the JAR file
+     * or the local disk.
+     * @return LevenshteinAutomaton instance, or null if there is none
+     */
+    private static LevenshteinAutomaton readLevenshteinAutomaton(int edit_distance, ChiType chi) throws IOException {
+        String file_name = getLevenshteinFileName(edit_distance, chi);
+        ByteBuffer buffer = null;
+
+        // first, try to load the LevenshteinAutomaton from the JAR file
+        InputStream in_stream = LevenshteinAutomaton.class.getClassLoader().getResourceAsStream(file_name);
+        if (in_stream != null) {
+            try {
+                buffer = ByteBuffer.wrap(readFully(in_stream));
+            } finally {
+                in_stream.close();
+            }
+        } else {
+            // second, map the LevenshteinAutomaton from the disk
+            RandomAccessFile file;
+            try {
+                file = new RandomAccessFile(file_name, "r");
+            } catch (FileNotFoundException fnf_excep) {
+                return null;
+            }
+            try {
+                FileChannel channel = file.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                file.close();
+            }
+        }
+
+        if ((buffer.remaining() >= 4) && (buffer.getInt(buffer.position()) == FILE_MAGIC)) {
+            return read(buffer);
+        }
+        return readSerialized(buffer);
+    }
+
+    /**
+     * Get the shared LevenshteinAutomaton of the given edit distance.
+     * @param edit_distance Distance greater than or equal to one of the
+     * desired LevenshteinAutomaton
+     * @return shared LevenshteinAutomaton instance
+     * @see #forDistance(int, ChiType)
+     */
+    public static LevenshteinAutomaton forDistance(int edit_distance) {
+        return forDistance(edit_distance, DEFAULT_CHI);
+    }
+
+    /**
+     * Get the shared LevenshteinAutomaton of the given edit distance and
+     * variant.  The first call for each combination loads the automaton as
+     * loadLevenshteinAutomaton does, or builds it if no file exists.  That
+     * happens exactly once: concurrent callers wait for the same result,
+     * and later callers get it straight from the registry.
+     * @param edit_distance Distance greater than or equal to one of the
+     * desired LevenshteinAutomaton
+     * @param chi variant of the distance
+     * @return shared LevenshteinAutomaton instance
+     */
+    public static LevenshteinAutomaton forDistance(final int edit_distance, final ChiType chi) {
+        Integer key = edit_distance * ChiType.values().length + chi.ordinal();
+        FutureTask<LevenshteinAutomaton> task = registry.get(key);
+        if (task == null) {
+            FutureTask<LevenshteinAutomaton> new_task = new FutureTask<LevenshteinAutomaton>(new Callable<LevenshteinAutomaton>() {
+
+                @Override
+                public LevenshteinAutomaton call() {
+                    LevenshteinAutomaton automaton = null;
+                    try {
+                        automaton = readLevenshteinAutomaton(edit_distance, chi);
+                    } catch (IOException io_excep) {
+                        // unreadable file, build the automaton instead
+                    }
+                    if ((automaton == null) || (automaton.edit_distance != edit_distance) || (automaton.chi != chi)) {
+                        automaton = new LevenshteinAutomaton(edit_distance, chi);
+                    }
+                    return automaton;
+                }
+            });
+            task = registry.putIfAbsent(key, new_task);
+            if (task == null) {
+                registry_misses.incrementAndGet();
+                task = new_task;
+                task.run();
+            } else {
+                registry_hits.incrementAndGet();
+            }
+        } else {
+            registry_hits.incrementAndGet();
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException i_excep) {
+                    interrupted = true;
+                } catch (ExecutionException e_excep) {
+                    // forget the failure so that a later call can try again
+                    registry.remove(key, task);
+                    Throwable cause = e_excep.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Get the number of forDistance calls answered by an automaton that was
+     * already loaded or being loaded.
+     * @return number of registry hits
+     */
+    public static long getRegistryHits() {
+        return registry_hits.get();
+    }
+
+    /**
+     * Get the number of forDistance calls that had to load or build an
+     * automaton.
+     * @return number of registry misses
+     */
+    public static long getRegistryMisses() {
+        return registry_misses.get();
+    }
+
+    private static byte[] readFully(InputStream in_stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int count;
+        while ((count = in_stream.read(chunk)) != -1) {
+            out.write(chunk, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads an automaton written with Java serialization.
+     */
+    static LevenshteinAutomaton readSerialized(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return (LevenshteinAutomaton) ois.readObject();
+        } catch (ClassNotFoundException cnf_excep) {
+            throw new IOException("Error while reading in the LevenshteinAutomaton object", cnf_excep);
+        } finally {
+            ois.close();
+        }
+    }
+
+    /**
+     * Describe the command line usage of the LevenshteinAutomaton class.
+     */
+    private static void usage() {
+        System.out.println("LevenshteinAutomaton [-t | -ms] ((-g distance) | (-l distance -d dictionary_file (word)+))");
+        System.out.println("\t-t counts transpositions of adjacent characters as one edit");
+        System.out.println("\t-ms counts merges and splits of characters as one edit");
+        System.out.println("\t-g generates a new Levenshtein automaton");
+        System.out.println("\t-l matches based on an existing Levenshtein automaton");
+    }
+
+    /**
+     * Command-line interface for generating instances of Levenshtein automata
+     * and using them in conjunction with dictionary automata to find matching
      * strings within a metric space.
      * @param args
      */
@@ -933,6 +3242,16 @@ public final class LevenshteinAutomaton
             return;
         }
 
+        ChiType chi = DEFAULT_CHI;
+        if (args[0].compareTo("-t") == 0) {
+            chi = ChiType.T;
+        } else if (args[0].compareTo("-ms") == 0) {
+            chi = ChiType.MS;
+        }
+        if (chi != DEFAULT_CHI) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
         int edit_distance = -1;
         if ((args.length == 2)
                 && (args[0].compareTo("-g") == 0)) {
@@ -945,7 +3264,7 @@ public final class LevenshteinAutomaton
                 System.err.println(args[1] + " is not a positive integer value");
                 return;
             }
-            generateLevenshtein(edit_distance);
+            generateLevenshtein(edit_distance, chi);
             return;
         }
 
@@ -967,24 +3286,16 @@ public final class LevenshteinAutomaton
         }
 
         String dict_file_name = args[3];
-        ObjectInputStream ois = null;
-        DictionaryAutomaton dictionary = null;
+        MappedDictionary dictionary = null;
         try {
-            ois = new ObjectInputStream(new FileInputStream(dict_file_name));
-            int ver_length = ois.readInt();
-            byte[] ver_magic_bytes = new byte[ver_length];
-            ois.read(ver_magic_bytes);
-            dictionary = (DictionaryAutomaton) ois.readObject();
-            ois.close();
+            // the format written by DictionaryAutomaton -g
+            dictionary = MappedDictionary.open(new File(dict_file_name));
         } catch (FileNotFoundException fnf_excep) {
             System.err.println("Couldn't find dictionary file " + dict_file_name);
             return;
         } catch (IOException io_excep) {
             io_excep.printStackTrace();
             return;
-        } catch (ClassNotFoundException cnf_excep) {
-            System.err.println("Error while reading in the Dictionary object");
-            return;
         }
 
         Collection<String> words = new ArrayList<String>(args.length - 4);
@@ -992,7 +3303,7 @@ public final class LevenshteinAutomaton
             words.add(args[i]);
         }
 
-        LevenshteinAutomaton automaton = loadLevenshteinAutomaton(edit_distance);
+        LevenshteinAutomaton automaton = forDistance(edit_distance, chi);
         if (automaton != null) {
             Set<String> result = new TreeSet<String>();
             for (String word : words) {
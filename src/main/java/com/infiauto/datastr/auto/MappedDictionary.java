@@ -0,0 +1,369 @@
+package com.infiauto.datastr.auto;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Dictionary queried directly from its flat binary file format, which is
+ * memory-mapped instead of deserialized.  Opening a dictionary costs a
+ * header check however large it is, and the pages of the file are shared
+ * by every process mapping it.  A dictionary can also be copied into a
+ * direct buffer by allocateDirect.  Either way the states and edges live
+ * outside the garbage collected heap, and queries read them in place
+ * without allocating.  All values are big-endian:
+ * <pre>
+ * int    FILE_MAGIC
+ * int    FILE_VERSION
+ * int    number of states n, the root being state 0
+ * int    number of edges m
+ * state table, n records of six ints:
+ *   int  index of the first edge of the state
+ *   int  number of edges, with the sign bit set if the state accepts
+ *   int  weight of the word ending in the state
+ *   int  greatest weight of a word ending in or below the state
+ *   int  length of the shortest suffix below the state
+ *   int  length of the longest suffix below the state
+ * edge table, m ints: target state of each edge
+ * string pool, m chars: label of each edge
+ * </pre>
+ * The edges of a state are consecutive and sorted by label, so that the
+ * labels of each state form one run of the string pool.  Words are rebuilt
+ * from their paths, so the file holds no per-word strings.  A file is
+ * limited to 2GB, the size of a single mapped buffer.
+ * @author Infinite Automata
+ */
+public final class MappedDictionary
+        implements CompactDictionary {
+
+    private static final int FILE_MAGIC = 0x49444943;
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int STATE_SIZE = 24;
+    private static final int ACCEPT_FLAG = 0x80000000;
+    private final ByteBuffer buffer;
+    private final int state_count;
+    private final int edge_count;
+    private final int target_offset;
+    private final int label_offset;
+
+    private MappedDictionary(ByteBuffer buffer, int state_count, int edge_count) {
+        this.buffer = buffer;
+        this.state_count = state_count;
+        this.edge_count = edge_count;
+        this.target_offset = HEADER_SIZE + state_count * STATE_SIZE;
+        this.label_offset = target_offset + 4 * edge_count;
+    }
+
+    /**
+     * Writes a dictionary in the binary format.
+     * @param dictionary_automaton dictionary to write, which may be a
+     * minimal one
+     * @param out stream to write to, which is not closed
+     * @throws IOException if the stream cannot be written
+     */
+    public static void write(DictionaryAutomaton dictionary_automaton, OutputStream out) throws IOException {
+        IdentityHashMap<DictionaryAutomaton.DictionaryState, Integer> state_ids = new IdentityHashMap<DictionaryAutomaton.DictionaryState, Integer>();
+        ArrayList<DictionaryAutomaton.DictionaryState> states = numberStates(dictionary_automaton, state_ids);
+        write(states, state_ids, countEdges(states), out);
+    }
+
+    /**
+     * Numbers the states breadth-first, shared states getting a single id.
+     * @param dictionary_automaton dictionary to number
+     * @param state_ids receives the id of every state
+     * @return states in the order of their ids
+     */
+    private static ArrayList<DictionaryAutomaton.DictionaryState> numberStates(DictionaryAutomaton dictionary_automaton,
+            IdentityHashMap<DictionaryAutomaton.DictionaryState, Integer> state_ids) {
+        ArrayList<DictionaryAutomaton.DictionaryState> states = new ArrayList<DictionaryAutomaton.DictionaryState>();
+        states.add(dictionary_automaton.getCurrentState());
+        state_ids.put(dictionary_automaton.getCurrentState(), 0);
+        for (int i = 0; i < states.size(); i++) {
+            for (DictionaryAutomaton.DictionaryState next_state : states.get(i).getEdgeStates()) {
+                if (!state_ids.containsKey(next_state)) {
+                    state_ids.put(next_state, states.size());
+                    states.add(next_state);
+                }
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Counts the edges of the numbered states.
+     * @param states states in the order of their ids
+     * @return number of edges
+     * @throws IOException if the binary format of the states exceeds 2GB
+     */
+    private static int countEdges(List<DictionaryAutomaton.DictionaryState> states) throws IOException {
+        long edge_total = 0;
+        for (DictionaryAutomaton.DictionaryState state : states) {
+            edge_total += state.getEdgeStates().length;
+        }
+        if (HEADER_SIZE + (long) STATE_SIZE * states.size() + 6 * edge_total > Integer.MAX_VALUE) {
+            throw new IOException("Dictionary too large for the binary format");
+        }
+        return (int) edge_total;
+    }
+
+    /**
+     * Gets the size of the binary format, which countEdges has checked to
+     * fit in an int.
+     * @param state_count number of states
+     * @param edge_total number of edges
+     * @return size in bytes
+     */
+    private static int sizeOf(int state_count, int edge_total) {
+        return HEADER_SIZE + STATE_SIZE * state_count + 6 * edge_total;
+    }
+
+    /**
+     * Writes the numbered states in the binary format.
+     * @param states states in the order of their ids
+     * @param state_ids id of every state
+     * @param edge_total number of edges, as counted by countEdges
+     * @param out stream to write to, which is not closed
+     * @throws IOException if the stream cannot be written
+     */
+    private static void write(List<DictionaryAutomaton.DictionaryState> states,
+            IdentityHashMap<DictionaryAutomaton.DictionaryState, Integer> state_ids,
+            int edge_total,
+            OutputStream out) throws IOException {
+        DataOutputStream data_out = new DataOutputStream(new BufferedOutputStream(out));
+        data_out.writeInt(FILE_MAGIC);
+        data_out.writeInt(FILE_VERSION);
+        data_out.writeInt(states.size());
+        data_out.writeInt(edge_total);
+        int first_edge = 0;
+        for (DictionaryAutomaton.DictionaryState state : states) {
+            int state_edge_count = state.getEdgeLabels().length;
+            data_out.writeInt(first_edge);
+            data_out.writeInt(state.isAccept() ? (state_edge_count | ACCEPT_FLAG) : state_edge_count);
+            data_out.writeInt(state.getWeight());
+            data_out.writeInt(state.getMaxWeight());
+            data_out.writeInt(state.getMinSuffixLength());
+            data_out.writeInt(state.getMaxSuffixLength());
+            first_edge += state_edge_count;
+        }
+        for (DictionaryAutomaton.DictionaryState state : states) {
+            for (DictionaryAutomaton.DictionaryState next_state : state.getEdgeStates()) {
+                data_out.writeInt(state_ids.get(next_state));
+            }
+        }
+        for (DictionaryAutomaton.DictionaryState state : states) {
+            for (char c : state.getEdgeLabels()) {
+                data_out.writeChar(c);
+            }
+        }
+        data_out.flush();
+    }
+
+    /**
+     * Copies a dictionary into a direct buffer, outside the garbage
+     * collected heap.  The copy adds only this object to the heap, however
+     * many words it holds, and is written straight into the buffer without
+     * an intermediate array, so the source dictionary can be dropped
+     * afterwards.
+     * @param dictionary_automaton dictionary to copy, which may be a
+     * minimal one
+     * @return dictionary backed by a direct buffer
+     * @throws IllegalArgumentException if the dictionary exceeds the 2GB
+     * limit of the format
+     */
+    public static MappedDictionary allocateDirect(DictionaryAutomaton dictionary_automaton) {
+        IdentityHashMap<DictionaryAutomaton.DictionaryState, Integer> state_ids = new IdentityHashMap<DictionaryAutomaton.DictionaryState, Integer>();
+        ArrayList<DictionaryAutomaton.DictionaryState> states = numberStates(dictionary_automaton, state_ids);
+        try {
+            int edge_total = countEdges(states);
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(sizeOf(states.size(), edge_total));
+            write(states, state_ids, edge_total, new OutputStream() {
+
+                @Override
+                public void write(int b) {
+                    buffer.put((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    buffer.put(b, off, len);
+                }
+            });
+            ((Buffer) buffer).flip();
+            return read(buffer);
+        } catch (IOException io_excep) {
+            throw new IllegalArgumentException(io_excep.getMessage());
+        }
+    }
+
+    /**
+     * Writes a dictionary in the binary format to a file.
+     * @param dictionary_automaton dictionary to write
+     * @param file file to create or replace
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(DictionaryAutomaton dictionary_automaton, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            write(dictionary_automaton, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Maps a dictionary file read-only.  The mapping stays valid after the
+     * file is closed.
+     * @param file file in the binary format
+     * @return dictionary backed by the mapped file
+     * @throws IOException if the file cannot be read or is not in the
+     * binary format
+     */
+    public static MappedDictionary open(File file) throws IOException {
+        RandomAccessFile random_access_file = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = random_access_file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Dictionary file larger than 2GB");
+            }
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            random_access_file.close();
+        }
+    }
+
+    /**
+     * Wraps a buffer holding a dictionary in the binary format, from its
+     * position on.  Only the header is read; the buffer is shared, not
+     * copied, and must not be modified afterwards.
+     * @param buffer buffer holding the dictionary
+     * @return dictionary backed by the buffer
+     * @throws IOException if the buffer is not in the binary format
+     */
+    public static MappedDictionary read(ByteBuffer buffer) throws IOException {
+        ByteBuffer data = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        if ((data.remaining() < HEADER_SIZE) || (data.getInt(0) != FILE_MAGIC)) {
+            throw new IOException("Not a dictionary");
+        }
+        int version = data.getInt(4);
+        if (version != FILE_VERSION) {
+            throw new IOException("Unsupported dictionary version " + version);
+        }
+        int state_count = data.getInt(8);
+        int edge_count = data.getInt(12);
+        if ((state_count < 1) || (edge_count < 0)) {
+            throw new IOException("Corrupt dictionary header");
+        }
+        if (HEADER_SIZE + (long) STATE_SIZE * state_count + 6L * edge_count > data.remaining()) {
+            throw new IOException("Truncated dictionary");
+        }
+        return new MappedDictionary(data, state_count, edge_count);
+    }
+
+    /**
+     * Gets the number of states in the dictionary.
+     * @return number of states
+     */
+    public int getStateCount() {
+        return state_count;
+    }
+
+    /**
+     * Gets the number of edges in the dictionary.
+     * @return number of edges
+     */
+    public int getEdgeCount() {
+        return edge_count;
+    }
+
+    /**
+     * Get the weight of the word ending in a state.
+     * @param state handle of the state
+     * @return weight of the word, zero for states that do not accept
+     */
+    public int getWeight(int state) {
+        return buffer.getInt(HEADER_SIZE + state * STATE_SIZE + 8);
+    }
+
+    /**
+     * Get the greatest weight of any word ending in a state or below it.
+     * @param state handle of the state
+     * @return greatest weight of a word ending in or below the state
+     */
+    public int getMaxWeight(int state) {
+        return buffer.getInt(HEADER_SIZE + state * STATE_SIZE + 12);
+    }
+
+    @Override
+    public int getRootState() {
+        return 0;
+    }
+
+    @Override
+    public boolean isAccept(int state) {
+        return buffer.getInt(HEADER_SIZE + state * STATE_SIZE + 4) < 0;
+    }
+
+    @Override
+    public int getEdgeCount(int state) {
+        return buffer.getInt(HEADER_SIZE + state * STATE_SIZE + 4) & ~ACCEPT_FLAG;
+    }
+
+    @Override
+    public char getEdgeLabel(int state, int edge) {
+        return buffer.getChar(label_offset + 2 * (buffer.getInt(HEADER_SIZE + state * STATE_SIZE) + edge));
+    }
+
+    @Override
+    public int getEdgeTarget(int state, int edge) {
+        return buffer.getInt(target_offset + 4 * (buffer.getInt(HEADER_SIZE + state * STATE_SIZE) + edge));
+    }
+
+    @Override
+    public int getNextState(int state, char c) {
+        int record = HEADER_SIZE + state * STATE_SIZE;
+        int first_edge = buffer.getInt(record);
+        int low = first_edge;
+        int high = first_edge + (buffer.getInt(record + 4) & ~ACCEPT_FLAG) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char label = buffer.getChar(label_offset + 2 * middle);
+            if (label < c) {
+                low = middle + 1;
+            } else if (label > c) {
+                high = middle - 1;
+            } else {
+                return buffer.getInt(target_offset + 4 * middle);
+            }
+        }
+        return NO_STATE;
+    }
+
+    @Override
+    public int getMinSuffixLength(int state) {
+        return buffer.getInt(HEADER_SIZE + state * STATE_SIZE + 16);
+    }
+
+    @Override
+    public int getMaxSuffixLength(int state) {
+        return buffer.getInt(HEADER_SIZE + state * STATE_SIZE + 20);
+    }
+
+    @Override
+    public int getState(CharSequence prefix) {
+        int state = 0;
+        for (int i = 0; (i < prefix.length()) && (state != NO_STATE); i++) {
+            state = getNextState(state, prefix.charAt(i));
+        }
+        return state;
+    }
+
+    @Override
+    public boolean match(String word) {
+        int state = getState(word);
+        return (state != NO_STATE) && isAccept(state);
+    }
+}
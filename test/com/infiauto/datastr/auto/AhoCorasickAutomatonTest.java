@@ -0,0 +1,66 @@
+package com.infiauto.datastr.auto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of AhoCorasickAutomaton.
+ * @author Infinite Automata
+ */
+public class AhoCorasickAutomatonTest {
+
+    /**
+     * Lists, in sorted order, every occurrence of a word in the text.
+     */
+    private static List<String> occurrences(Collection<String> words, String text) {
+        List<String> result = new ArrayList<String>();
+        for (String word : words) {
+            for (int i = text.indexOf(word); i >= 0; i = text.indexOf(word, i + 1)) {
+                result.add(word);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<String> sorted(List<String> words) {
+        List<String> result = new ArrayList<String>(words);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * matchAll finds every occurrence of the words, also after words have
+     * been added and removed.
+     */
+    @Test
+    public void testMatchAllAfterUpdates() {
+        TreeSet<String> words = new TreeSet<String>(LevenshteinAutomatonTest.randomWords(1, 200, 3, 4));
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(new ArrayList<String>(words));
+        List<String> texts = LevenshteinAutomatonTest.randomWords(2, 50, 3, 30);
+        for (String text : texts) {
+            assertEquals(text, occurrences(words, text), sorted(automaton.matchAll(text)));
+        }
+
+        for (String word : LevenshteinAutomatonTest.randomWords(3, 20, 3, 6)) {
+            assertEquals(word, words.add(word), automaton.add(word));
+        }
+        for (String word : LevenshteinAutomatonTest.randomWords(4, 20, 3, 3)) {
+            assertEquals(word, words.remove(word), automaton.remove(word));
+        }
+        for (String text : texts) {
+            assertEquals(text, occurrences(words, text), sorted(automaton.matchAll(text)));
+        }
+
+        AhoCorasickAutomaton she = new AhoCorasickAutomaton("he", "she", "hers");
+        assertTrue(she.add("his"));
+        assertTrue(she.remove("he"));
+        assertEquals(sorted(Arrays.asList("his", "she", "hers")), sorted(she.matchAll("hishers")));
+    }
+}
@@ -0,0 +1,231 @@
+package com.infiauto.datastr.auto;
+
+import com.infiauto.datastr.auto.DictionaryAutomaton.DictionaryState;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of DictionaryAutomaton.
+ * @author Infinite Automata
+ */
+public class DictionaryAutomatonTest {
+
+    /**
+     * Dictionary of he, hers, his, she, sheep, hello, help and abc
+     * serialized by the original implementation, which kept every word in
+     * its accepting state.
+     */
+    private static final File SERIALIZED_DICTIONARY = new File("test/com/infiauto/datastr/auto/dictionary-serialized.ser");
+
+    private static DictionaryState find(DictionaryAutomaton dictionary, String word) {
+        DictionaryState state = dictionary.getCurrentState();
+        for (int i = 0; (i < word.length()) && (state != null); i++) {
+            state = state.getNextState(word.charAt(i));
+        }
+        return state;
+    }
+
+    private static int weightOf(DictionaryAutomaton dictionary, String word) {
+        DictionaryState state = find(dictionary, word);
+        assertTrue(word, (state != null) && state.isAccept());
+        return state.getWeight();
+    }
+
+    private static List<String> words(DictionaryAutomaton dictionary) {
+        List<String> words = new ArrayList<String>();
+        for (String word : dictionary) {
+            words.add(word);
+        }
+        return words;
+    }
+
+    /**
+     * A minimal dictionary holds the same words as a trie, finds the same
+     * words with a Levenshtein automaton, and has fewer states.
+     */
+    @Test
+    public void testBuilderMatchesTrie() {
+        List<String> words = LevenshteinAutomatonTest.randomWords(1, 5000, 6, 9);
+        TreeSet<String> sorted = new TreeSet<String>(words);
+        DictionaryAutomaton trie = new DictionaryAutomaton(words);
+        DictionaryAutomaton.Builder builder = new DictionaryAutomaton.Builder();
+        for (String word : sorted) {
+            builder.add(word);
+        }
+        DictionaryAutomaton minimal = builder.build();
+
+        assertEquals(new ArrayList<String>(sorted), words(minimal));
+        assertEquals(sorted.size(), minimal.getWordCount());
+        assertTrue(minimal.getStateCount() + " states against " + trie.getStateCount(),
+                minimal.getStateCount() < trie.getStateCount());
+        for (String query : LevenshteinAutomatonTest.randomWords(2, 500, 6, 9)) {
+            assertEquals(query, trie.match(query), minimal.match(query));
+        }
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(2);
+        for (String query : LevenshteinAutomatonTest.randomWords(3, 50, 6, 9)) {
+            assertEquals(query, automaton.recognize(query, trie), automaton.recognize(query, minimal));
+        }
+    }
+
+    /**
+     * Words added out of order are rejected, and adding the last word
+     * again replaces its weight.
+     */
+    @Test
+    public void testBuilderOrder() {
+        DictionaryAutomaton.Builder builder = new DictionaryAutomaton.Builder();
+        builder.add("apple", 1).add("banana", 2);
+        try {
+            builder.add("apricot");
+            fail("apricot was added after banana");
+        } catch (IllegalArgumentException ia_excep) {
+            assertTrue(ia_excep.getMessage(), ia_excep.getMessage().contains("ascending order"));
+        }
+        builder.add("banana", 5);
+        DictionaryAutomaton dictionary = builder.build();
+        assertEquals(Arrays.asList("apple", "banana"), words(dictionary));
+        assertEquals(1, weightOf(dictionary, "apple"));
+        assertEquals(5, weightOf(dictionary, "banana"));
+    }
+
+    /**
+     * Ordinals are dense, follow the lexicographic order and invert
+     * wordAt, in a trie as well as a minimal dictionary.
+     */
+    @Test
+    public void testOrdinals() {
+        TreeSet<String> sorted = new TreeSet<String>(LevenshteinAutomatonTest.randomWords(4, 3000, 5, 8));
+        DictionaryAutomaton.Builder builder = new DictionaryAutomaton.Builder();
+        for (String word : sorted) {
+            builder.add(word);
+        }
+        DictionaryAutomaton[] dictionaries = {new DictionaryAutomaton(new ArrayList<String>(sorted)), builder.build()};
+        for (DictionaryAutomaton dictionary : dictionaries) {
+            int ordinal = 0;
+            for (String word : sorted) {
+                assertEquals(word, ordinal, dictionary.indexOf(word));
+                assertEquals(word, dictionary.wordAt(ordinal));
+                ordinal++;
+            }
+            assertEquals(-1, dictionary.indexOf("zzz"));
+            try {
+                dictionary.wordAt(sorted.size());
+                fail("wordAt past the last word");
+            } catch (IndexOutOfBoundsException ioob_excep) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Added words are found and removed words are not, and removing a word
+     * keeps the words it is a prefix of.
+     */
+    @Test
+    public void testAddRemove() {
+        DictionaryAutomaton dictionary = new DictionaryAutomaton("car", "card", "care", "cat");
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(1);
+
+        assertTrue(dictionary.add("cart", 3));
+        assertFalse(dictionary.add("cart", 3));
+        assertTrue(dictionary.match("cart"));
+        assertEquals(3, weightOf(dictionary, "cart"));
+        assertTrue(dictionary.add("cart", 4));
+        assertEquals(4, weightOf(dictionary, "cart"));
+        assertTrue(automaton.recognize("carx", dictionary).contains("cart"));
+
+        assertTrue(dictionary.remove("car"));
+        assertFalse(dictionary.remove("car"));
+        assertFalse(dictionary.match("car"));
+        assertEquals(Arrays.asList("card", "care", "cart", "cat"), words(dictionary));
+        assertEquals(4, dictionary.getWordCount());
+        assertEquals(new TreeSet<String>(Arrays.asList("card", "care", "cart", "cat")),
+                automaton.recognize("car", dictionary));
+
+        assertTrue(dictionary.remove("cat"));
+        assertNull(find(dictionary, "cat"));
+        assertEquals(Arrays.asList("card", "care", "cart"), words(dictionary));
+        assertFalse(dictionary.remove("ca"));
+    }
+
+    /**
+     * complete returns the heaviest words starting with the prefix, the
+     * prefix itself included, and nothing for a prefix of no word.
+     */
+    @Test
+    public void testComplete() {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put("the", 50);
+        weights.put("then", 10);
+        weights.put("there", 30);
+        weights.put("these", 20);
+        weights.put("they", 40);
+        weights.put("to", 60);
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(weights);
+
+        assertEquals(Arrays.asList("the", "they", "there"), dictionary.complete("the", 3));
+        assertEquals(Collections.singletonList("there"), dictionary.complete("ther", 5));
+        assertEquals(Arrays.asList("to", "the", "they", "there", "these", "then"), dictionary.complete("t", 10));
+        assertEquals(Collections.singletonList("to"), dictionary.complete("", 1));
+        assertTrue(dictionary.complete("x", 5).isEmpty());
+        assertTrue(dictionary.complete("the", 0).isEmpty());
+
+        Random random = new Random(5);
+        weights.clear();
+        for (String word : LevenshteinAutomatonTest.randomWords(6, 3000, 4, 8)) {
+            weights.put(word, random.nextInt(100));
+        }
+        dictionary = new DictionaryAutomaton(weights);
+        for (String prefix : LevenshteinAutomatonTest.randomWords(7, 30, 4, 3)) {
+            List<Integer> expected = new ArrayList<Integer>();
+            for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    expected.add(entry.getValue());
+                }
+            }
+            Collections.sort(expected, Collections.reverseOrder());
+            List<Integer> found = new ArrayList<Integer>();
+            for (String word : dictionary.complete(prefix, 10)) {
+                assertTrue(word, word.startsWith(prefix));
+                found.add(weights.get(word));
+            }
+            assertEquals(prefix, expected.subList(0, Math.min(10, expected.size())), found);
+        }
+    }
+
+    /**
+     * A dictionary serialized by the original implementation is read and
+     * converted, and finds the same words as before.
+     */
+    @Test
+    public void testReadSerializedDictionary() throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new FileInputStream(SERIALIZED_DICTIONARY));
+        DictionaryAutomaton dictionary;
+        try {
+            dictionary = (DictionaryAutomaton) in.readObject();
+        } finally {
+            in.close();
+        }
+
+        List<String> expected = Arrays.asList("abc", "he", "hello", "help", "hers", "his", "she", "sheep");
+        assertEquals(expected, words(dictionary));
+        for (String word : expected) {
+            assertTrue(word, dictionary.match(word));
+        }
+        assertFalse(dictionary.match("hel"));
+        assertEquals(new TreeSet<String>(Arrays.asList("he", "hers")),
+                new LevenshteinAutomaton(1).recognize("her", dictionary));
+    }
+}
@@ -0,0 +1,37 @@
+package com.infiauto.datastr.auto;
+
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of DoubleArrayDictionary.
+ * @author Infinite Automata
+ */
+public class DoubleArrayDictionaryTest {
+
+    /**
+     * A double-array dictionary holds the same words as the dictionary it
+     * is built from, and a Levenshtein automaton finds the same words in
+     * both.
+     */
+    @Test
+    public void testMatchesDictionaryAutomaton() {
+        List<String> words = LevenshteinAutomatonTest.randomWords(1, 5000, 26, 10);
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(words);
+        DoubleArrayDictionary[] compact_dictionaries = {new DoubleArrayDictionary(words), new DoubleArrayDictionary(dictionary)};
+        List<String> queries = LevenshteinAutomatonTest.randomWords(2, 1000, 26, 10);
+        queries.addAll(words.subList(0, 1000));
+        queries.add("");
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(2);
+        for (DoubleArrayDictionary compact_dictionary : compact_dictionaries) {
+            assertEquals(dictionary.getWordCount(), compact_dictionary.getWordCount());
+            for (String query : queries) {
+                assertEquals(query, dictionary.match(query), compact_dictionary.match(query));
+            }
+            for (String query : queries.subList(0, 100)) {
+                assertEquals(query, automaton.recognize(query, dictionary), automaton.recognize(query, compact_dictionary));
+            }
+        }
+    }
+}
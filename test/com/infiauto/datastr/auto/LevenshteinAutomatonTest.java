@@ -0,0 +1,578 @@
+package com.infiauto.datastr.auto;
+
+import com.infiauto.DistanceFunctions;
+import com.infiauto.datastr.MultiMap;
+import com.infiauto.datastr.auto.LevenshteinAutomaton.ChiType;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of LevenshteinAutomaton.
+ * @author Infinite Automata
+ */
+public class LevenshteinAutomatonTest {
+
+    /**
+     * Bytes a query may allocate beyond its results, which covers the
+     * visitor passed to the traversal.
+     */
+    private static final long QUERY_ALLOWANCE = 64;
+    /**
+     * Bytes a result may allocate, which covers the String of a word of up
+     * to ten characters.
+     */
+    private static final long RESULT_ALLOWANCE = 96;
+    /**
+     * Automaton of edit distance one serialized by the original
+     * implementation, before the compiled form existed.
+     */
+    private static final File SERIALIZED_AUTOMATON = new File("test/com/infiauto/datastr/auto/dist001-serialized.lev");
+
+    static List<String> randomWords(long seed, int count, int alphabet_size, int max_length) {
+        Random random = new Random(seed);
+        List<String> words = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            int length = 1 + random.nextInt(max_length);
+            StringBuilder word = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(alphabet_size)));
+            }
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /**
+     * Lists every word of one to max_length letters over the first
+     * alphabet_size letters.
+     */
+    private static List<String> allWords(int alphabet_size, int max_length) {
+        List<String> words = new ArrayList<String>();
+        words.add("");
+        for (int start = 0, length = 1; length <= max_length; length++) {
+            int end = words.size();
+            for (int i = start; i < end; i++) {
+                for (int c = 0; c < alphabet_size; c++) {
+                    words.add(words.get(i) + (char) ('a' + c));
+                }
+            }
+            start = end;
+        }
+        words.remove(0);
+        return words;
+    }
+
+    /**
+     * Computes a distance by dynamic programming: the Levenshtein distance
+     * for EPSILON, the optimal string alignment distance, which also counts
+     * swapping two adjacent characters as one edit, for T, and the distance
+     * that also counts merging two characters into one and splitting one
+     * into two as one edit for MS.
+     */
+    private static int distance(String s1, String s2, ChiType chi) {
+        int[][] d = new int[s1.length() + 1][s2.length() + 1];
+        for (int i = 0; i <= s1.length(); i++) {
+            for (int j = 0; j <= s2.length(); j++) {
+                if ((i == 0) || (j == 0)) {
+                    d[i][j] = i + j;
+                    continue;
+                }
+                int cost = (s1.charAt(i - 1) == s2.charAt(j - 1) ? 0 : 1);
+                int value = Math.min(Math.min(d[i - 1][j], d[i][j - 1]) + 1, d[i - 1][j - 1] + cost);
+                if ((chi == ChiType.T) && (i > 1) && (j > 1)
+                        && (s1.charAt(i - 1) == s2.charAt(j - 2)) && (s1.charAt(i - 2) == s2.charAt(j - 1))) {
+                    value = Math.min(value, d[i - 2][j - 2] + 1);
+                }
+                if ((chi == ChiType.MS) && (i > 1)) {
+                    value = Math.min(value, d[i - 2][j - 1] + 1);
+                }
+                if ((chi == ChiType.MS) && (j > 1)) {
+                    value = Math.min(value, d[i - 1][j - 2] + 1);
+                }
+                d[i][j] = value;
+            }
+        }
+        return d[s1.length()][s2.length()];
+    }
+
+    /**
+     * Maps every word within the edit distance of the query to its
+     * distance.
+     */
+    private static Map<String, Integer> bruteForce(String query, Collection<String> words, int edit_distance, ChiType chi) {
+        Map<String, Integer> expected = new TreeMap<String, Integer>();
+        for (String word : words) {
+            int word_distance = distance(query, word, chi);
+            if (word_distance <= edit_distance) {
+                expected.put(word, word_distance);
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Inverts the distance groups of correctError.
+     */
+    private static Map<String, Integer> byWord(MultiMap<Integer, String> groups) {
+        Map<String, Integer> result = new TreeMap<String, Integer>();
+        for (Integer group : groups.keySet()) {
+            for (String word : groups.getAll(group)) {
+                assertNull(word + " is grouped twice", result.put(word, group));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Automata built for each edit distance up to 4 find exactly the words
+     * a brute-force comparison finds.  The timeout guards the build, which
+     * takes a few seconds for k=4.
+     */
+    @Test(timeout = 120000)
+    public void testRecognizeMatchesBruteForce() {
+        List<String> words = randomWords(42, 2000, 5, 7);
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(words);
+        Set<String> distinct_words = new TreeSet<String>(words);
+        List<String> queries = randomWords(43, 50, 6, 8);
+
+        for (int edit_distance = 1; edit_distance <= 4; edit_distance++) {
+            LevenshteinAutomaton automaton = new LevenshteinAutomaton(edit_distance);
+            for (String query : queries) {
+                Set<String> expected = new TreeSet<String>();
+                for (String word : distinct_words) {
+                    if (DistanceFunctions.levenshteinDistance(query, word) <= edit_distance) {
+                        expected.add(word);
+                    }
+                }
+                assertEquals("k=" + edit_distance + " query " + query,
+                        expected, new TreeSet<String>(automaton.recognize(query, dictionary)));
+            }
+        }
+    }
+
+    private static void assertBuildTime(int edit_distance, long max_millis) {
+        long start = System.nanoTime();
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(edit_distance);
+        long millis = (System.nanoTime() - start) / 1000000;
+        assertTrue("k=" + edit_distance + " built " + automaton.getStateCount() + " states in " + millis + "ms",
+                millis <= max_millis);
+    }
+
+    /**
+     * The build of each edit distance stays within a few times its usual
+     * time, which is about 30ms for k=1, 100ms for k=2, 300ms for k=3 and
+     * 2s for k=4.
+     */
+    @Test
+    public void testBuildTimeK1() {
+        assertBuildTime(1, 250);
+    }
+
+    @Test
+    public void testBuildTimeK2() {
+        assertBuildTime(2, 500);
+    }
+
+    @Test
+    public void testBuildTimeK3() {
+        assertBuildTime(3, 1500);
+    }
+
+    @Test
+    public void testBuildTimeK4() {
+        assertBuildTime(4, 8000);
+    }
+
+    /**
+     * Once warmed up, recognize into a reused collection allocates nothing
+     * but the Strings of the words it finds.
+     */
+    @Test
+    public void testRecognizeAllocatesOnlyResults() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean thread_bean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(thread_bean.isThreadAllocatedMemorySupported());
+        thread_bean.setThreadAllocatedMemoryEnabled(true);
+
+        List<String> words = randomWords(1, 20000, 20, 10);
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(words);
+        List<String> queries = randomWords(2, 2000, 20, 10);
+        long thread_id = Thread.currentThread().getId();
+
+        for (int edit_distance = 1; edit_distance <= 2; edit_distance++) {
+            LevenshteinAutomaton automaton = new LevenshteinAutomaton(edit_distance);
+            List<String> result = new ArrayList<String>(words.size());
+            long bytes = 0;
+            long results = 0;
+            for (int round = 0; round < 5; round++) {
+                // the last round is measured, the others warm up the JIT
+                results = 0;
+                bytes = thread_bean.getThreadAllocatedBytes(thread_id);
+                for (String query : queries) {
+                    result.clear();
+                    automaton.recognize(query, dictionary, result);
+                    results += result.size();
+                }
+                bytes = thread_bean.getThreadAllocatedBytes(thread_id) - bytes;
+            }
+
+            long limit = queries.size() * QUERY_ALLOWANCE + results * RESULT_ALLOWANCE;
+            assertTrue("k=" + edit_distance + " allocated " + bytes + " bytes for "
+                    + queries.size() + " queries and " + results + " results",
+                    bytes <= limit);
+        }
+    }
+
+    /**
+     * An automaton serialized by the original implementation is read and
+     * rebuilt into the compiled form.
+     */
+    @Test
+    public void testReadSerializedAutomaton() throws IOException {
+        byte[] bytes = Files.readAllBytes(SERIALIZED_AUTOMATON.toPath());
+        LevenshteinAutomaton automaton = LevenshteinAutomaton.readSerialized(ByteBuffer.wrap(bytes));
+        LevenshteinAutomaton built = new LevenshteinAutomaton(1);
+        assertEquals(built.getStateCount(), automaton.getStateCount());
+
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(randomWords(7, 500, 4, 6));
+        for (String query : randomWords(8, 50, 4, 6)) {
+            assertEquals(query, built.recognize(query, dictionary), automaton.recognize(query, dictionary));
+        }
+    }
+
+    /**
+     * Writing and reading the binary format preserves the automaton, and
+     * other versions of the format are rejected.
+     */
+    @Test
+    public void testWriteRead() throws IOException {
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(randomWords(9, 1000, 5, 7));
+        List<String> queries = randomWords(10, 50, 5, 7);
+        for (ChiType chi : ChiType.values()) {
+            LevenshteinAutomaton automaton = new LevenshteinAutomaton(2, chi);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            automaton.write(out);
+            LevenshteinAutomaton copy = LevenshteinAutomaton.read(ByteBuffer.wrap(out.toByteArray()));
+            assertEquals(automaton.getStateCount(), copy.getStateCount());
+            for (String query : queries) {
+                assertEquals(chi + " query " + query,
+                        byWord(automaton.correctError(2, query, dictionary)), byWord(copy.correctError(2, query, dictionary)));
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new LevenshteinAutomaton(1).write(out);
+        byte[] bytes = out.toByteArray();
+        ByteBuffer.wrap(bytes).putInt(4, 2);
+        try {
+            LevenshteinAutomaton.read(ByteBuffer.wrap(bytes));
+            fail("version 2 was read");
+        } catch (IOException io_excep) {
+            assertTrue(io_excep.getMessage(), io_excep.getMessage().contains("version"));
+        }
+        try {
+            LevenshteinAutomaton.read(ByteBuffer.wrap(Arrays.copyOf(out.toByteArray(), 100)));
+            fail("a truncated automaton was read");
+        } catch (IOException io_excep) {
+            assertTrue(io_excep.getMessage(), io_excep.getMessage().contains("Truncated"));
+        }
+    }
+
+    /**
+     * correctError groups every word under its exact distance, for an
+     * automaton bound to a dictionary.
+     */
+    @Test
+    public void testCorrectErrorGroupsByDistance() {
+        List<String> words = randomWords(11, 2000, 5, 7);
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(words);
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(new LevenshteinAutomaton(2), dictionary);
+        for (String query : randomWords(12, 50, 5, 7)) {
+            for (int distance = 0; distance <= 2; distance++) {
+                assertEquals("distance " + distance + " query " + query,
+                        bruteForce(query, words, distance, ChiType.EPSILON), byWord(automaton.correctError(distance, query)));
+            }
+        }
+    }
+
+    /**
+     * The transposition and merge/split automata find every word over
+     * {a,b,c} of up to five letters within the optimal string alignment
+     * and merge/split distances of every such query, at its exact distance.
+     */
+    @Test
+    public void testChiVariantsMatchBruteForce() {
+        List<String> words = allWords(3, 5);
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(words);
+        for (ChiType chi : new ChiType[]{ChiType.T, ChiType.MS}) {
+            for (int edit_distance = 1; edit_distance <= 2; edit_distance++) {
+                LevenshteinAutomaton automaton = new LevenshteinAutomaton(edit_distance, chi);
+                for (String query : words) {
+                    assertEquals(chi + " k=" + edit_distance + " query " + query,
+                            bruteForce(query, words, edit_distance, chi),
+                            byWord(automaton.correctError(edit_distance, query, dictionary)));
+                }
+            }
+        }
+    }
+
+    /**
+     * A lazy automaton finds the same words as a compiled one, and a query
+     * against a small cache, even one still being streamed, leaves the
+     * cache within its bound.
+     */
+    @Test
+    public void testLazyCacheStaysBounded() {
+        List<String> words = randomWords(13, 20000, 8, 12);
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(words);
+        List<String> queries = randomWords(14, 20, 8, 12);
+        for (ChiType chi : ChiType.values()) {
+            LevenshteinAutomaton compiled = new LevenshteinAutomaton(3, chi);
+            LevenshteinAutomaton lazy = new LevenshteinAutomaton(3, chi, 64);
+            for (String query : queries) {
+                assertEquals(chi + " query " + query, compiled.recognize(query, dictionary), lazy.recognize(query, dictionary));
+                assertTrue(chi + " cache of " + lazy.getCacheSize() + " entries", lazy.getCacheSize() <= 64);
+            }
+
+            Iterator<String> stream = lazy.recognizeStream("abcdefghabcd", dictionary).iterator();
+            for (int i = 0; (i < 10) && stream.hasNext(); i++) {
+                stream.next();
+                assertTrue(chi + " cache of " + lazy.getCacheSize() + " entries while streaming", lazy.getCacheSize() <= 64);
+            }
+        }
+    }
+
+    /**
+     * recognizeAll maps every distinct query, in order, to the words
+     * recognize finds for it.
+     */
+    @Test
+    public void testRecognizeAllMatchesRecognize() {
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(randomWords(15, 5000, 6, 9));
+        List<String> queries = new ArrayList<String>(randomWords(16, 40, 6, 12));
+        queries.add(queries.get(0));
+        queries.add(queries.get(5));
+        queries.add("a");
+        for (ChiType chi : ChiType.values()) {
+            LevenshteinAutomaton[] automata = {new LevenshteinAutomaton(2, chi), new LevenshteinAutomaton(2, chi, 16)};
+            for (LevenshteinAutomaton automaton : automata) {
+                Map<String, Collection<String>> result = automaton.recognizeAll(queries, dictionary);
+                assertEquals(new ArrayList<String>(new LinkedHashSet<String>(queries)), new ArrayList<String>(result.keySet()));
+                for (String query : queries) {
+                    assertEquals(chi + " query " + query, automaton.recognize(query, dictionary), result.get(query));
+                }
+            }
+        }
+    }
+
+    /**
+     * recognizeParallel finds the same words as recognize in a dictionary
+     * large enough to be split into tasks.
+     */
+    @Test
+    public void testRecognizeParallelMatchesRecognize() {
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(randomWords(17, 20000, 20, 10));
+        assertTrue(dictionary.getStateCount() >= LevenshteinAutomaton.PARALLEL_THRESHOLD);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            LevenshteinAutomaton[] automata = {new LevenshteinAutomaton(2), new LevenshteinAutomaton(2, ChiType.EPSILON, 16)};
+            for (LevenshteinAutomaton automaton : automata) {
+                for (String query : randomWords(18, 30, 20, 10)) {
+                    assertEquals(query, automaton.recognize(query, dictionary), automaton.recognizeParallel(query, dictionary, pool));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * recognizeStream yields the words of recognize in the same order, and
+     * stops early for limit and findFirst.
+     */
+    @Test
+    public void testRecognizeStreamMatchesRecognize() {
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(randomWords(19, 5000, 6, 9));
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(2);
+        for (String query : randomWords(20, 30, 6, 9)) {
+            List<String> expected = new ArrayList<String>(automaton.recognize(query, dictionary));
+            assertEquals(query, expected, automaton.recognizeStream(query, dictionary).collect(Collectors.toList()));
+            assertEquals(query, expected.subList(0, Math.min(3, expected.size())),
+                    automaton.recognizeStream(query, dictionary).limit(3).collect(Collectors.toList()));
+            assertEquals(query, (expected.isEmpty() ? null : expected.get(0)),
+                    automaton.recognizeStream(query, dictionary).findFirst().orElse(null));
+        }
+    }
+
+    /**
+     * recognizePrefix finds the words with a prefix within the edit
+     * distance, so a typo in what has been typed still completes to longer
+     * words, and returns the lexicographically first of them when capped.
+     */
+    @Test
+    public void testRecognizePrefix() {
+        DictionaryAutomaton small = new DictionaryAutomaton("application", "apply", "banana", "bandana", "cap");
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(1);
+        assertEquals(new TreeSet<String>(Arrays.asList("application", "apply")), automaton.recognizePrefix("appk", small));
+        assertEquals(Collections.singleton("application"), automaton.recognizePrefix("appk", small, 1));
+        assertTrue(automaton.recognizePrefix("appk", small, 0).isEmpty());
+
+        List<String> words = randomWords(21, 3000, 5, 9);
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(words);
+        for (String query : randomWords(22, 30, 5, 5)) {
+            Set<String> expected = new TreeSet<String>();
+            for (String word : words) {
+                for (int length = 0; length <= word.length(); length++) {
+                    if (distance(query, word.substring(0, length), ChiType.EPSILON) <= 1) {
+                        expected.add(word);
+                        break;
+                    }
+                }
+            }
+            assertEquals(query, expected, automaton.recognizePrefix(query, dictionary));
+            List<String> first = new ArrayList<String>(expected).subList(0, Math.min(5, expected.size()));
+            assertEquals(query, first, new ArrayList<String>(automaton.recognizePrefix(query, dictionary, 5)));
+        }
+    }
+
+    /**
+     * recognizeBest returns the words ranked first by distance and then by
+     * weight among all the words recognize finds.  Words of equal rank may
+     * come in any order, so only their distances and weights are compared.
+     */
+    @Test
+    public void testRecognizeBestMatchesRankedRecognize() {
+        List<String> words = randomWords(23, 5000, 6, 8);
+        Random random = new Random(24);
+        final Map<String, Integer> weights = new HashMap<String, Integer>();
+        for (String word : words) {
+            weights.put(word, random.nextInt(1000));
+        }
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(weights);
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(2);
+        for (String query : randomWords(25, 30, 6, 8)) {
+            final Map<String, Integer> distances = byWord(automaton.correctError(2, query, dictionary));
+            List<String> ranked = new ArrayList<String>(distances.keySet());
+            Collections.sort(ranked, new Comparator<String>() {
+
+                @Override
+                public int compare(String word1, String word2) {
+                    if (!distances.get(word1).equals(distances.get(word2))) {
+                        return distances.get(word1) - distances.get(word2);
+                    }
+                    return weights.get(word2) - weights.get(word1);
+                }
+            });
+            for (int max_results : new int[]{1, 5, 20}) {
+                List<String> best = automaton.recognizeBest(query, dictionary, max_results);
+                List<String> expected = ranked.subList(0, Math.min(max_results, ranked.size()));
+                assertEquals(query, expected.size(), best.size());
+                for (int i = 0; i < best.size(); i++) {
+                    assertEquals(query + " rank " + i, distances.get(expected.get(i)), distances.get(best.get(i)));
+                    assertEquals(query + " rank " + i, weights.get(expected.get(i)), weights.get(best.get(i)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Pruning by word length leaves the results unchanged in a dictionary
+     * mixing very short and very long words.
+     */
+    @Test
+    public void testLengthPruningKeepsResults() {
+        List<String> words = new ArrayList<String>(randomWords(26, 1000, 3, 2));
+        for (String word : randomWords(27, 1000, 3, 5)) {
+            words.add(word + "abcabcabcabcabc".substring(0, 10 + word.length() % 5) + word);
+        }
+        words.addAll(randomWords(28, 1000, 3, 6));
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(words);
+        List<String> queries = new ArrayList<String>(randomWords(29, 20, 3, 3));
+        queries.addAll(words.subList(1000, 1020));
+        for (ChiType chi : ChiType.values()) {
+            for (int edit_distance = 1; edit_distance <= 2; edit_distance++) {
+                LevenshteinAutomaton automaton = new LevenshteinAutomaton(edit_distance, chi);
+                for (String query : queries) {
+                    assertEquals(chi + " k=" + edit_distance + " query " + query,
+                            bruteForce(query, words, edit_distance, chi).keySet(), automaton.recognize(query, dictionary));
+                }
+            }
+        }
+    }
+
+    /**
+     * recognizeOrdinals finds the ordinals of the words recognize finds.
+     */
+    @Test
+    public void testRecognizeOrdinalsMatchesRecognize() {
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(randomWords(30, 5000, 6, 8));
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(2);
+        for (String query : randomWords(31, 30, 6, 8)) {
+            List<String> words = new ArrayList<String>();
+            for (int ordinal : automaton.recognizeOrdinals(query, dictionary)) {
+                words.add(dictionary.wordAt(ordinal));
+            }
+            assertEquals(query, new ArrayList<String>(automaton.recognize(query, dictionary)), words);
+        }
+    }
+
+    /**
+     * Repeated and concurrent calls of forDistance share one automaton,
+     * the first call being the only miss.
+     */
+    @Test
+    public void testForDistanceSharesInstances() throws Exception {
+        long hits = LevenshteinAutomaton.getRegistryHits();
+        long misses = LevenshteinAutomaton.getRegistryMisses();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<LevenshteinAutomaton>> futures = new ArrayList<Future<LevenshteinAutomaton>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<LevenshteinAutomaton>() {
+
+                    @Override
+                    public LevenshteinAutomaton call() {
+                        return LevenshteinAutomaton.forDistance(2, ChiType.MS);
+                    }
+                }));
+            }
+            LevenshteinAutomaton shared = futures.get(0).get();
+            for (Future<LevenshteinAutomaton> future : futures) {
+                assertSame(shared, future.get());
+            }
+            assertSame(shared, LevenshteinAutomaton.forDistance(2, ChiType.MS));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, LevenshteinAutomaton.getRegistryMisses() - misses);
+        assertEquals(8, LevenshteinAutomaton.getRegistryHits() - hits);
+    }
+}
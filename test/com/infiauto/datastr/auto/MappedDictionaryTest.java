@@ -0,0 +1,97 @@
+package com.infiauto.datastr.auto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of MappedDictionary.
+ * @author Infinite Automata
+ */
+public class MappedDictionaryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void assertSameWords(DictionaryAutomaton dictionary, CompactDictionary compact_dictionary, List<String> queries) {
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(2);
+        for (String query : queries) {
+            assertEquals(query, dictionary.match(query), compact_dictionary.match(query));
+            assertEquals(query, automaton.recognize(query, dictionary), automaton.recognize(query, compact_dictionary));
+        }
+    }
+
+    private static void assertRejected(byte[] bytes, String message) {
+        try {
+            MappedDictionary.read(ByteBuffer.wrap(bytes));
+            fail(message + " was read");
+        } catch (IOException io_excep) {
+            assertTrue(io_excep.getMessage(), io_excep.getMessage().startsWith(message));
+        }
+    }
+
+    /**
+     * A dictionary written to a file and mapped again finds the same words
+     * as the dictionary written, a minimal one included.
+     */
+    @Test
+    public void testWriteOpen() throws IOException {
+        List<String> words = LevenshteinAutomatonTest.randomWords(1, 5000, 8, 9);
+        List<String> queries = LevenshteinAutomatonTest.randomWords(2, 50, 8, 9);
+        queries.addAll(words.subList(0, 50));
+        DictionaryAutomaton.Builder builder = new DictionaryAutomaton.Builder();
+        for (String word : new TreeSet<String>(words)) {
+            builder.add(word);
+        }
+        DictionaryAutomaton[] dictionaries = {new DictionaryAutomaton(words), builder.build()};
+        for (DictionaryAutomaton dictionary : dictionaries) {
+            File file = folder.newFile();
+            MappedDictionary.write(dictionary, file);
+            MappedDictionary mapped_dictionary = MappedDictionary.open(file);
+            assertSameWords(dictionary, mapped_dictionary, queries);
+        }
+    }
+
+    /**
+     * Buffers that are not dictionaries, of another version of the format
+     * or cut short are rejected.
+     */
+    @Test
+    public void testReadRejectsBadInput() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MappedDictionary.write(new DictionaryAutomaton("apple", "apply", "banana"), out);
+        byte[] bytes = out.toByteArray();
+        assertTrue(MappedDictionary.read(ByteBuffer.wrap(bytes)).match("apply"));
+
+        assertRejected(new byte[8], "Not a dictionary");
+        assertRejected(Arrays.copyOf(bytes, bytes.length - 1), "Truncated dictionary");
+        byte[] other_version = bytes.clone();
+        ByteBuffer.wrap(other_version).putInt(4, 2);
+        assertRejected(other_version, "Unsupported dictionary version");
+        byte[] no_states = bytes.clone();
+        ByteBuffer.wrap(no_states).putInt(8, 0);
+        assertRejected(no_states, "Corrupt dictionary header");
+    }
+
+    /**
+     * A dictionary copied into a direct buffer finds the same words as the
+     * dictionary on the heap.
+     */
+    @Test
+    public void testAllocateDirect() {
+        List<String> words = LevenshteinAutomatonTest.randomWords(3, 5000, 8, 9);
+        DictionaryAutomaton dictionary = new DictionaryAutomaton(words);
+        MappedDictionary direct_dictionary = MappedDictionary.allocateDirect(dictionary);
+        List<String> queries = LevenshteinAutomatonTest.randomWords(4, 50, 8, 9);
+        queries.addAll(words.subList(0, 50));
+        assertSameWords(dictionary, direct_dictionary, queries);
+    }
+}